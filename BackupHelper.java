@@ -1,21 +1,25 @@
 import java.util.logging.Logger;
 
 public class BackupHelper implements Runnable  {
-	private static final int SLEEP_PERIOD = 100;	
+	private static final long SLEEP_PERIOD = FailureDetector.HEARTBEAT_INTERVAL;
 
 	// TODO: any place that access backupPlayer may have concurrent access issue.
 	// think about how to solve it
 	Game backupPlayer;
+	private final FailureDetector detector;
+	private boolean primarySuspected = false;
 
 	private final Logger LOGGER = Logger.getLogger("BackupHelper");
+	private static final Trace.Event SWEEP = Trace.event("heartbeat.backupSweep", "primary", "primaryUp", "status");
 
 	public BackupHelper(Game backupPlayer){
 		this.backupPlayer = backupPlayer;
+		this.detector = backupPlayer.failureDetector;
 	}
 
 	public void run() {
 		// keep pinging primary server until 
-		// 	1. primary server uncontactable and we deal with it
+		// 	1. the failure detector says the primary is dead and we deal with it
 		//  2. backupPlayer uncontactable and we shut down
 		while (true) {
 			try{
@@ -24,6 +28,9 @@ public class BackupHelper implements Runnable  {
 				// TODO: log it
 			}	
 
+			// a sweep is timed from the ping of ourselves on
+			long sweepStart = System.nanoTime();
+
 			// TODO: using remote call to detect self dead may be wrong!
 			// 		 since helper is only a thread, 
 			// 		 maybe we don't even have to worry about this?
@@ -37,6 +44,7 @@ public class BackupHelper implements Runnable  {
                     backupPlayerStub.ping();    
                 }                    
             } catch (Exception e) {
+                backupPlayer.stubCache.invalidate(backupPlayer.myPlayerAddr.playerID);
                 backupUncontactable = true;
             } 			
             
@@ -45,29 +53,39 @@ public class BackupHelper implements Runnable  {
             	return; 
             }
 
-			boolean primaryUncontactable = false;
-		    try {		    	
-		    	PlayerAddr primaryAddr = backupPlayer.playerAddrMap.get(backupPlayer.primaryPlayerID);
-		    	if (primaryAddr == null){
-		    		LOGGER.warning("BUGGY! fail to get primary server address from backupPlayer.playerAddrMap");
-		    		primaryUncontactable = true;
-		    	} else {
-		    		GameRemote primaryPlayerStub = backupPlayer.getPlayerStub(primaryAddr);                
-	                if (primaryPlayerStub == null){	                    
-	                    primaryUncontactable = true;
-	                } else {
-	                    primaryPlayerStub.ping();    
-	                }    	
-		    	}	                            
-            } catch (Exception e) {
-                primaryUncontactable = true;
-            } 			
+			String primaryPlayerID = backupPlayer.primaryPlayerID;
+			long heard = backupPlayer.lastHeard.get(primaryPlayerID);
+			boolean heardLately = LastHeard.isRecent(heard, System.currentTimeMillis());
+			boolean primaryUncontactable = !heardLately && !pingPrimary(primaryPlayerID);
+
+			// one failed ping is not the end of the primary, the failure detector decides
+			long now = System.currentTimeMillis();
+			if (heardLately) {
+				// its last update is its heartbeat
+				detector.heartbeat(primaryPlayerID, heard);
+				backupPlayer.metrics.pingsSkipped.incrementAndGet();
+			} else if (primaryUncontactable) {
+				detector.missed(primaryPlayerID, now);
+				backupPlayer.metrics.pingsSent.incrementAndGet();
+			} else {
+				detector.heartbeat(primaryPlayerID, now);
+				backupPlayer.metrics.pingsSent.incrementAndGet();
+			}
+			FailureDetector.Status status = detector.status(primaryPlayerID, now);
             
-            if (!primaryUncontactable){
+			backupPlayer.metrics.backupSweep.record(System.nanoTime() - sweepStart);
+			Trace.record(SWEEP, primaryPlayerID, primaryUncontactable ? 0 : 1, status.ordinal());
+			if (status == FailureDetector.Status.SUSPECT && !primarySuspected) {
+				LOGGER.info("primary suspected: "+primaryPlayerID+", suspicion "+detector.suspicion(primaryPlayerID, now));
+				backupPlayer.metrics.suspicions.incrementAndGet();
+			}
+			primarySuspected = status == FailureDetector.Status.SUSPECT;
+            if (status != FailureDetector.Status.DEAD){
 				continue;
             }            
 
-			LOGGER.info("primaryUncontactable not contactable. promoting self to primary");            
+			backupPlayer.metrics.deaths.incrementAndGet();
+			LOGGER.info("primary "+primaryPlayerID+" is dead, suspicion "+detector.suspicion(primaryPlayerID, now)+". promoting self to primary");            
 			backupPlayer.promoteSelfToPrimary();
 			// note that the old primary should be remove from tracker during promoteSelfToPrimary
 			LOGGER.info("finish promoting self to primary. backupHelper shutting down...");
@@ -77,4 +95,24 @@ public class BackupHelper implements Runnable  {
 
 	}
 
-}
\ No newline at end of file
+	// @return: true if the primary answered
+	private boolean pingPrimary(String primaryPlayerID) {
+		try {
+			PlayerAddr primaryAddr = backupPlayer.playerAddrMap.get(primaryPlayerID);
+			if (primaryAddr == null){
+				LOGGER.warning("BUGGY! fail to get primary server address from backupPlayer.playerAddrMap");
+				return false;
+			}
+			GameRemote primaryPlayerStub = backupPlayer.getPlayerStub(primaryAddr);
+			if (primaryPlayerStub == null){
+				return false;
+			}
+			primaryPlayerStub.ping();
+			return true;
+		} catch (Exception e) {
+			backupPlayer.stubCache.invalidate(primaryPlayerID);
+			return false;
+		}
+	}
+
+}
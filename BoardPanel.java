@@ -0,0 +1,132 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Objects;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+
+/*
+    BoardPanel paints the maze itself instead of holding a JLabel per cell.
+    It keeps the cells it has painted; an update compares the new maze with them
+    and repaints only the cells that changed, and a paint only draws the cells in the clip,
+    which inside a JScrollPane is at most the visible part of the board.
+ */
+public class BoardPanel extends JComponent implements Scrollable {
+    private static final int CELL_SIZE = 24;
+    private static final Color GRID_COLOR = Color.BLACK;
+    private static final Color TREASURE_COLOR = new Color(255, 215, 0);
+    private static final Color SELF_COLOR = new Color(173, 216, 230);
+
+    private final String playerID;
+    // cells[x][y] as last set, x is the row and y the column like in the maze
+    private String[][] cells = new String[0][0];
+    private int dim = 0;
+
+    public BoardPanel(String playerID) {
+        this.playerID = playerID;
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 11));
+    }
+
+    // takes over the maze, only the changed cells are repainted
+    // @return: true if the board has changed size, the caller has to lay out again
+    public synchronized boolean setMaze(String[][] maze) {
+        if (maze.length != dim) {
+            dim = maze.length;
+            cells = new String[dim][dim];
+            for (int x = 0; x < dim; x++) {
+                System.arraycopy(maze[x], 0, cells[x], 0, dim);
+            }
+            revalidate();
+            repaint();
+            return true;
+        }
+        for (int x = 0; x < dim; x++) {
+            String[] row = cells[x];
+            String[] newRow = maze[x];
+            for (int y = 0; y < dim; y++) {
+                if (!Objects.equals(row[y], newRow[y])) {
+                    row[y] = newRow[y];
+                    // the RepaintManager merges these into one paint
+                    repaint(y * CELL_SIZE, x * CELL_SIZE, CELL_SIZE, CELL_SIZE);
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Dimension getPreferredSize() {
+        return new Dimension(dim * CELL_SIZE + 1, dim * CELL_SIZE + 1);
+    }
+
+    @Override
+    protected synchronized void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int firstColumn = Math.max(0, clip.x / CELL_SIZE);
+        int lastColumn = Math.min(dim - 1, (clip.x + clip.width) / CELL_SIZE);
+        int firstRow = Math.max(0, clip.y / CELL_SIZE);
+        int lastRow = Math.min(dim - 1, (clip.y + clip.height) / CELL_SIZE);
+        FontMetrics metrics = g.getFontMetrics();
+        for (int x = firstRow; x <= lastRow; x++) {
+            for (int y = firstColumn; y <= lastColumn; y++) {
+                paintCell(g, metrics, cells[x][y], y * CELL_SIZE, x * CELL_SIZE);
+            }
+        }
+    }
+
+    private void paintCell(Graphics g, FontMetrics metrics, String cell, int left, int top) {
+        boolean treasure = MazeGrid.TREASURE_STR.equals(cell);
+        if (treasure) {
+            g.setColor(TREASURE_COLOR);
+            g.fillOval(left + 4, top + 4, CELL_SIZE - 8, CELL_SIZE - 8);
+        } else if (playerID.equals(cell)) {
+            g.setColor(SELF_COLOR);
+            g.fillRect(left, top, CELL_SIZE, CELL_SIZE);
+        }
+        g.setColor(GRID_COLOR);
+        g.drawRect(left, top, CELL_SIZE, CELL_SIZE);
+        if (cell != null && !cell.isEmpty() && !treasure) {
+            int width = metrics.stringWidth(cell);
+            g.drawString(cell, left + (CELL_SIZE - width) / 2,
+                    top + (CELL_SIZE - metrics.getHeight()) / 2 + metrics.getAscent());
+        }
+    }
+
+    /******  Scrollable, a cell per unit  ******/
+
+    public Dimension getPreferredScrollableViewportSize() {
+        Dimension size = getPreferredSize();
+        // larger boards scroll
+        return new Dimension(Math.min(size.width, 20 * CELL_SIZE + 1), Math.min(size.height, 20 * CELL_SIZE + 1));
+    }
+
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return CELL_SIZE;
+    }
+
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        int visible = orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+        return Math.max(CELL_SIZE, visible / CELL_SIZE * CELL_SIZE);
+    }
+
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
@@ -47,7 +47,7 @@ public class Common {
 
     public static InterfaceData prepareInterfaceData(GameState gameState, int role) {
         InterfaceData interfaceData = new InterfaceData();
-        interfaceData.maze = gameState.maze;
+        interfaceData.maze = gameState.maze.toStringMaze();
         interfaceData.playerScores = gameState.playerScores;
         interfaceData.role = role;
         return interfaceData;
@@ -0,0 +1,42 @@
+/*
+    FailureDetector decides from the heartbeats of a peer, i.e. the pings it answered,
+    whether it is alive, suspected or dead. The helpers feed it and act on DEAD only;
+    SUSPECT is logged and counted, it costs nothing to be wrong about.
+    Times are passed in, in milliseconds, so that the detectors can be run on simulated time
+    (bench/FailureDetectorSimulation). A peer the detector has not heard of counts as alive
+    and is tracked from then on, as if it had just sent a heartbeat.
+    All methods may be called from any thread.
+
+    -Dgame.fd=phi (default) for PhiAccrualFailureDetector, fixed for FixedFailureDetector;
+    -Dgame.heartbeat.intervalMs (100) is how often the helpers ping.
+ */
+public interface FailureDetector {
+    long HEARTBEAT_INTERVAL = Long.getLong("game.heartbeat.intervalMs", 100);
+
+    enum Status {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    // the peer answered at nowMillis
+    void heartbeat(String peer, long nowMillis);
+
+    // a ping of the peer failed or did not return in time
+    void missed(String peer, long nowMillis);
+
+    // @return: how strongly the peer is suspected, on the detector's own scale, 0 for not at all
+    double suspicion(String peer, long nowMillis);
+
+    Status status(String peer, long nowMillis);
+
+    // forget the peer, e.g. it has left the game
+    void remove(String peer);
+
+    static FailureDetector fromSystemProperties() {
+        if ("fixed".equals(System.getProperty("game.fd"))) {
+            return FixedFailureDetector.fromSystemProperties();
+        }
+        return PhiAccrualFailureDetector.fromSystemProperties(HEARTBEAT_INTERVAL);
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    FixedFailureDetector counts the pings a peer missed in a row and forgets them on its next heartbeat.
+    With the defaults, one missed ping is dead, which is how the helpers used to decide.
+    -Dgame.fd.fixed.suspectMisses (1) and -Dgame.fd.fixed.deadMisses (1).
+ */
+public class FixedFailureDetector implements FailureDetector {
+	private final int suspectMisses;
+	private final int deadMisses;
+	// missed pings in a row, by peer
+	private final Map<String, Integer> misses = new ConcurrentHashMap<>();
+
+	public FixedFailureDetector(int suspectMisses, int deadMisses) {
+		this.suspectMisses = Math.max(1, Math.min(suspectMisses, deadMisses));
+		this.deadMisses = Math.max(1, deadMisses);
+	}
+
+	public static FixedFailureDetector fromSystemProperties() {
+		return new FixedFailureDetector(Integer.getInteger("game.fd.fixed.suspectMisses", 1),
+				Integer.getInteger("game.fd.fixed.deadMisses", 1));
+	}
+
+	public void heartbeat(String peer, long nowMillis) {
+		misses.remove(peer);
+	}
+
+	public void missed(String peer, long nowMillis) {
+		misses.merge(peer, 1, Integer::sum);
+	}
+
+	// @return: the missed pings in a row
+	public double suspicion(String peer, long nowMillis) {
+		return misses.getOrDefault(peer, 0);
+	}
+
+	public Status status(String peer, long nowMillis) {
+		int missed = misses.getOrDefault(peer, 0);
+		if (missed >= deadMisses) {
+			return Status.DEAD;
+		}
+		return missed >= suspectMisses ? Status.SUSPECT : Status.ALIVE;
+	}
+
+	public void remove(String peer) {
+		misses.remove(peer);
+	}
+
+	public String toString() {
+		return "fixed(suspect=" + suspectMisses + ", dead=" + deadMisses + " misses)";
+	}
+}
@@ -1,18 +1,37 @@
-import java.io.Serializable;
+import java.awt.GraphicsEnvironment;
+import java.io.Externalizable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 public class Game implements GameRemote {
@@ -30,16 +49,21 @@ public class Game implements GameRemote {
     public static final int BACKUP = 1;
     public static final int PRIMARY = 2;
 
-    // game board content
-    private static final String EMPTY = "";
-    private static final String TREASURE = "*";
-
     private static final int SLEEP_PERIOD = 100;
+    // most moves sent to the primary in one applyPlayerMoves call
+    private static final int MAX_BATCH = 64;
 
     // tracker related properties
     public String trackerIP = null;
     public String trackerPort = null;
     TrackerRemote trackerStub = null;
+    // our entry at the tracker lasts this long unless renewed, the tracker tells us on join
+    private long leaseMillis;
+    private Thread leaseRenewer;
+    // tells the tracker who the primary and backup are, off the gameStateLock and in order
+    private ExecutorService rolePublisher;
+    // the tracker refused our last roles, they are published again with the next lease renewal
+    private volatile boolean rolesRefused = false;
     
 
     // game play related properties
@@ -54,27 +78,119 @@ public class Game implements GameRemote {
     
     // game state
     Map<String, Coord> playerCoordMap = new Hashtable<>();
-    String[][] maze;
+    MazeGrid maze;
     Map<String, Integer> playerScores = new Hashtable<>();
     Map<String, PlayerAddr> playerAddrMap = new Hashtable<>();
 
-    // Methods that are lock by this lock
+    // latencies of the remote methods, locks, replication and heartbeats, and the gauges of the game,
+    // published over JMX once the player is registered, -Dgame.jmx=off to leave out
+    final GameMetrics metrics = new GameMetrics(this);
+
+    // decides for the helpers when a pinged peer is dead, kept across role changes, -Dgame.fd
+    final FailureDetector failureDetector = FailureDetector.fromSystemProperties();
+    // when the peers last called us, the helpers do not ping those that did just now
+    final LastHeard lastHeard = new LastHeard();
+
+    // Methods that take the write lock, i.e. have the whole gamestate to themselves
     // addOtherPlayer
-    // applyPlayerMove
+    // forceRemovePlayers
     // promoteSelfToPrimary
     // updateGameState
-    private Lock gameStateLock = new ReentrantLock();
+    // applyGameStateDelta
+    // an EXIT in applyPlayerMoves
+    // applyPlayerMoves takes the read lock plus the tiles its moves touch,
+    // so that moves on different parts of the board run in parallel
+    // with JMX on, how long it is waited for and held is recorded under lock.gameState
+    private ReadWriteLock gameStateLock = Metrics.ENABLED
+            ? new TimedReadWriteLock(metrics.metrics, "lock.gameState") : new ReentrantReadWriteLock();
+    // size of the square tiles the board is locked by, -Dgame.lockTile
+    private static final int LOCK_TILE_SIZE = Integer.getInteger("game.lockTile", 4);
+    TileLocks tileLocks;
+
+    // replication
+    // in delta mode the primary ships only what changed since the last replicated version,
+    // set -Dgame.replication=full to push the whole GameState on every change instead
+    private static final boolean DELTA_REPLICATION = !"full".equals(System.getProperty("game.replication", "delta"));
+    volatile long stateVersion = 0;
+    private GameStateDelta pendingDelta = new GameStateDelta();
+    // guards pendingDelta, and hands out versions and replication sequence numbers in the same order
+    private final Lock deltaLock = new ReentrantLock();
+    // sends the changes to the backup outside of the gameStateLock, only exists on the primary
+    ReplicationPipeline replicationPipeline;
+    // replication factor: the backup plus -Dgame.replicas - 1 warm standbys (default 1, no standbys)
+    private static final int REPLICAS = Math.max(1, Integer.getInteger("game.replicas", 1));
+    // the chain after the backup, in the order the standbys take its place when it is gone
+    // the primary's goes out with the deltas, so that the backup has it when it takes over
+    volatile List<String> standbyPlayerIDs = new CopyOnWriteArrayList<>();
+    // on the primary, a pipeline per standby, never waited for
+    private final Map<String, ReplicationPipeline> standbyPipelines = new ConcurrentHashMap<>();
+    // pushes the changes to the normal players, so that they don't have to ask for them with REFRESH
+    // on by default, -Dgame.broadcast=off to turn off
+    private static final boolean BROADCAST = !"off".equals(System.getProperty("game.broadcast", "on"));
+    StateBroadcaster stateBroadcaster;
+    // write-ahead log of every sealed delta, only exists on the primary and with -Dgame.wal.dir
+    MoveLog moveLog;
 
     private static final int DEFAULT_PORT = 0;
     private Lock lockJoinGame = new ReentrantLock();
 
+    // shows our own moves before the primary has answered, -Dgame.prediction=true to turn on
+    MovePredictor movePredictor;
+
+    // stubs of the other players, so that we don't ask their registry on every call
+    StubCache stubCache = new StubCache();
+
+    // -Dgame.transport=nio sends moves, gamestate updates and pings over MoveServer/MoveClient
+    // connections instead of RMI, to every player that runs a MoveServer
+    private static final boolean NIO_TRANSPORT = "nio".equals(System.getProperty("game.transport", "rmi"));
+    MoveServer moveServer;
+    private final Map<String, MoveClient> moveClients = new ConcurrentHashMap<>();
+
     // GUI
+    // no window when headless or with -Dgame.gui=off, e.g. for the load generator
+    private static final boolean GUI = !GraphicsEnvironment.isHeadless() && !"off".equals(System.getProperty("game.gui"));
     GameInterface gameInterface;
+    // renders on the EDT, the game threads only tell it that there is something new
+    RenderScheduler renderScheduler;
 
     // logging
     private final Logger LOGGER = Logger.getLogger("Game");
-
-    private Random rand;
+    // the hot paths record trace events instead of logging, see Trace
+    private static final Trace.Event ADD_LOCKING = Trace.event("addOtherPlayer.locking", "player");
+    private static final Trace.Event ADD_LOCKED = Trace.event("addOtherPlayer.locked", "player");
+    private static final Trace.Event ADD_REFUSED = Trace.event("addOtherPlayer.refused", "player");
+    private static final Trace.Event ADD_FULL = Trace.event("addOtherPlayer.full", "player");
+    private static final Trace.Event ADD_ADDED = Trace.event("addOtherPlayer.added", "player", "players");
+    private static final Trace.Event ADD_AS_BACKUP = Trace.event("addOtherPlayer.asBackup", "player");
+    private static final Trace.Event ADD_REPLICATE = Trace.event("addOtherPlayer.replicate", "player", "version");
+    private static final Trace.Event MOVES_LOCKING = Trace.event("applyPlayerMoves.locking", "player", "moves");
+    private static final Trace.Event MOVES_LOCKED = Trace.event("applyPlayerMoves.locked", "player", "moves");
+    private static final Trace.Event MOVES_REPLICATE = Trace.event("applyPlayerMoves.replicate", "player", "version");
+    private static final Trace.Event MOVES_DONE = Trace.event("applyPlayerMoves.done", "player", "version");
+    private static final Trace.Event MOVE = Trace.event("move", "player");
+    private static final Trace.Event MOVE_OFF_BOARD = Trace.event("move.offBoard", "move");
+    private static final Trace.Event MOVE_OCCUPIED = Trace.event("move.occupied", "player", "x", "y");
+    private static final Trace.Event MOVE_APPLIED = Trace.event("move.applied", "player", "x", "y");
+    private static final Trace.Event MOVE_TREASURE = Trace.event("move.treasure", "player");
+    private static final Trace.Event BACKUP_NONE = Trace.event("updateBackup.noBackup", null, "version");
+    private static final Trace.Event BACKUP_QUEUED = Trace.event("updateBackup.queued", null, "version", "seq");
+    private static final Trace.Event UPDATE_LOCKING = Trace.event("updateGameState.locking", null, "version");
+    private static final Trace.Event UPDATE_LOCKED = Trace.event("updateGameState.locked", null, "version");
+    private static final Trace.Event UPDATE_APPLIED = Trace.event("updateGameState.applied", null, "version", "players");
+    private static final Trace.Event UPDATE_AS_BACKUP = Trace.event("updateGameState.asBackup");
+    private static final Trace.Event UPDATE_PRIMARY = Trace.event("updateGameState.primary", "player");
+    private static final Trace.Event UPDATE_BACKUP = Trace.event("updateGameState.backup", "player");
+    private static final Trace.Event DELTA_LOCKING = Trace.event("applyGameStateDelta.locking", null, "version");
+    private static final Trace.Event DELTA_LOCKED = Trace.event("applyGameStateDelta.locked", null, "version");
+    private static final Trace.Event DELTA_STALE = Trace.event("applyGameStateDelta.stale", null, "version", "local");
+    private static final Trace.Event DELTA_GAP = Trace.event("applyGameStateDelta.gap", null, "base", "local");
+    private static final Trace.Event DELTA_APPLIED = Trace.event("applyGameStateDelta.applied", null, "version");
+    private static final Trace.Event GET_PRIMARY = Trace.event("getPrimaryServer", "primary");
+    private static final Trace.Event APPLY_LOCAL = Trace.event("applyMoves.local", null, "moves");
+    private static final Trace.Event APPLY_REMOTE = Trace.event("applyMoves.remote", null, "moves");
+    private static final Trace.Event APPLY_RETRY = Trace.event("applyMoves.retry", null, "moves");
+    private static final Trace.Event APPLY_ROLLED_BACK = Trace.event("applyMoves.rolledBack", null, "moves");
+    private static final Trace.Event APPLY_DONE = Trace.event("applyMoves.done", null, "version");
 
     public static void main(String[] args) {
         if (args.length != 3) {
@@ -92,10 +208,23 @@ public class Game implements GameRemote {
                 System.exit(0);
             }
 
+            // lines are read on their own thread, so that whatever has piled up
+            // while the previous batch was in flight goes to the primary as one batch
+            BlockingQueue<String> input = new LinkedBlockingQueue<>();
+            Thread inputReader = new Thread(() -> {
+                while (keyboard.hasNextLine()) {
+                    input.add(keyboard.nextLine());
+                }
+            });
+            inputReader.setDaemon(true);
+            inputReader.start();
+
             while (true) {
-                String nextMove = keyboard.nextLine();
-                player.move(nextMove);
-                if (nextMove.equals(EXIT)){
+                List<String> nextMoves = new ArrayList<>();
+                nextMoves.add(input.take());
+                input.drainTo(nextMoves, MAX_BATCH - 1);
+                player.moveBatch(nextMoves);
+                if (nextMoves.contains(EXIT)){
                     break;
                 }
             }
@@ -118,8 +247,11 @@ public class Game implements GameRemote {
         Registry registry = LocateRegistry.getRegistry(trackerIP);
         this.trackerStub = (TrackerRemote) registry.lookup("tracker");
         LOGGER.info(logtag + "finish init tracker");        
-        
-        this.rand = new Random();
+        this.rolePublisher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "roles-" + playerID);
+            thread.setDaemon(true);
+            return thread;
+        });
         
         String ipAddr = Common.getLocalAddress();
         if (ipAddr == null) {
@@ -130,9 +262,43 @@ public class Game implements GameRemote {
         this.myPlayerAddr = new PlayerAddr(ipAddr, DEFAULT_PORT, playerID);
         this.myPlayerAddr.playerID = playerID;
         LOGGER.info(logtag + "finish init myPlayerAddr");
+
+        if (NIO_TRANSPORT) {
+            try {
+                moveServer = new MoveServer(this);
+                myPlayerAddr.movePort = moveServer.getPort();
+                Thread moveServerThread = new Thread(moveServer);
+                moveServerThread.setDaemon(true);
+                moveServerThread.start();
+                LOGGER.info(logtag + "move server listening on port " + myPlayerAddr.movePort);
+            } catch (IOException e) {
+                LOGGER.warning(logtag + "fail to start move server, using RMI only: " + e);
+            }
+        }
         
         Common.registerGame(this);
         LOGGER.info(logtag + "finish registerGame RMI");
+        metrics.publish(playerID);
+
+        if (Boolean.getBoolean("game.prediction")) {
+            this.movePredictor = new MovePredictor(playerID);
+        }
+
+        Thread stubRefresher = new Thread(stubCache);
+        stubRefresher.setDaemon(true);
+        stubRefresher.start();
+    }
+
+    // a primary that is not registered anywhere, for the benchmarks
+    // other players are added through addOtherPlayer with made up addresses
+    Game(int N, int K, String playerID) {
+        this.N = N;
+        this.K = K;
+        this.myPlayerAddr = new PlayerAddr("127.0.0.1", DEFAULT_PORT, playerID);
+        this.gameRole = PRIMARY;
+        this.primaryPlayerID = playerID;
+        this.tileLocks = new TileLocks(N, LOCK_TILE_SIZE);
+        initGameState();
     }
 
 
@@ -141,18 +307,33 @@ public class Game implements GameRemote {
     // used when other player wants to join the game
     // the param and returned type for this method is not carefully considered yet
     public GameState addOtherPlayer(PlayerAddr playerAddr){
+        long start = System.nanoTime();
+        try {
+            return doAddOtherPlayer(playerAddr);
+        } finally {
+            metrics.addOtherPlayer.record(System.nanoTime() - start);
+        }
+    }
+
+    private GameState doAddOtherPlayer(PlayerAddr playerAddr){
         // TODO: shall we make this method synchronized since RMI remote call is multi-thread?
 
         String logtag = "[addOtherPlayer] ";
 
-        LOGGER.info(logtag+"obtaining gamestatelock");
-        gameStateLock.lock();
-        LOGGER.info(logtag+"obtained gamestatelock");
-        
+        Trace.record(ADD_LOCKING, playerAddr.playerID);
+        gameStateLock.writeLock().lock();
+        Trace.record(ADD_LOCKED, playerAddr.playerID);
+
+        if (gameRole != PRIMARY) {
+            // the joiner has a stale primary from the tracker, it falls back to asking around
+            gameStateLock.writeLock().unlock();
+            Trace.record(ADD_REFUSED, playerAddr.playerID);
+            throw new IllegalStateException(myPlayerAddr.playerID + " is not the primary");
+        }
 
         if (isPlayersFull()) {
-            LOGGER.info(logtag + "fails because player full");        
-            gameStateLock.unlock();
+            Trace.record(ADD_FULL, playerAddr.playerID);
+            gameStateLock.writeLock().unlock();
             return null;
         }
 
@@ -160,62 +341,216 @@ public class Game implements GameRemote {
         addPlayerCoord(playerAddr.playerID);
         addPlayerAddr(playerAddr);
 
-        LOGGER.info(logtag + "added player to gamestate");        
+        Trace.record(ADD_ADDED, playerAddr.playerID, playerAddrMap.size());
 
         GameState gameState = prepareGameState();
-        LOGGER.info("[addOtherPlayer] after adding playerAddr size: " + playerAddrMap.size());
+        long replicationSeq = 0;
 
+        // the new player gets a copy taken after its join is sealed,
+        // so that the deltas it gets afterwards start exactly at its version
         if (this.playerAddrMap.size() <= 1) {
             LOGGER.severe(logtag+"invalid playerAddrMap size");
         } else if (this.playerAddrMap.size() == 2) {
             // promote this player to backup    
             // after this player calles updateGameState, it will starts behave as backup
-            LOGGER.info(logtag+"new player shall become backup");
+            Trace.record(ADD_AS_BACKUP, playerAddr.playerID);
             backupPlayerID = playerAddr.playerID;
+            gameState = copyGameState(prepareReplicaState());
             gameState.isBecomeBackup = true;
+            publishRoles();
         } else {
-            LOGGER.info(logtag+"updating backup about this change");
             // TODO: currently stress test shows that this update doesn't take effect
             //       pls investigate
-            boolean ok = updateBackup();
-            if (!ok) {
-                // current backup is dead, we should find another one
-                LOGGER.warning(logtag+"update to change to backup fail");
-                // TODO: recover backup
-                // (Let's just let the helper thread do this job and see if it works)
+            replicationSeq = updateBackup();
+            gameState = copyGameState(prepareReplicaState());
+            Trace.record(ADD_REPLICATE, playerAddr.playerID, gameState.version);
+            if (stateBroadcaster != null) {
+                stateBroadcaster.subscribe(playerAddr.playerID, gameState.version);
             }
         }
 
-        LOGGER.warning(logtag+" updating game interface");
         udpateGameInterface();
 
-        gameStateLock.unlock();
+        gameStateLock.writeLock().unlock();
+
+        if (!awaitDurable(gameState.version)) {
+            LOGGER.warning(logtag+"move log fail");
+        }
+        if (!awaitBackup(replicationSeq)) {
+            // current backup is dead, we should find another one
+            LOGGER.warning(logtag+"update to change to backup fail");
+            // TODO: recover backup
+            // (Let's just let the helper thread do this job and see if it works)
+        }
         return gameState;
     }
 
     // called by other players to apply a move
     // @return: GameState as update result
     public GameState applyPlayerMove(String playerID, String move){
-        String logtag = "[applyPlayerMove] ";
+        long start = System.nanoTime();
+        try {
+            return doApplyPlayerMove(playerID, move);
+        } finally {
+            metrics.applyPlayerMove.record(System.nanoTime() - start);
+        }
+    }
 
-        LOGGER.info(logtag+"obtaining gamestatelock");
-        gameStateLock.lock();
-        LOGGER.info(logtag+"obtained gamestatelock");
+    private GameState doApplyPlayerMove(String playerID, String move){
+        return applyPlayerMoves(playerID, new String[]{move}).gameState;
+    }
 
-        LOGGER.info(logtag+"playerID: "+ playerID + ", move: "+move);
-        // the actual game logic goes here
-        Coord coord = playerCoordMap.get(playerID);
+    // called by other players to apply a batch of moves in one go
+    // the moves are applied in order, and the backup gets one update for all of them
+    // moves after an EXIT are rejected
+    // @return: GameState after the last move, and which of the moves were accepted
+    public MoveBatchResult applyPlayerMoves(String playerID, String[] moves){
+        long start = System.nanoTime();
+        try {
+            return doApplyPlayerMoves(playerID, moves);
+        } finally {
+            metrics.applyPlayerMoves.record(System.nanoTime() - start);
+        }
+    }
+
+    private MoveBatchResult doApplyPlayerMoves(String playerID, String[] moves){
+        String logtag = "[applyPlayerMoves] ";
+
+        Trace.record(MOVES_LOCKING, playerID, moves.length);
+        gameStateLock.readLock().lock();
+        Trace.record(MOVES_LOCKED, playerID, moves.length);
+        // only for a player still in the game, a late call of one that has left would bring its entry back
+        // removePlayerState takes the write lock, so the player cannot leave in between
+        if (playerAddrMap.containsKey(playerID)) {
+            lastHeard.heard(playerID);
+        }
+
+        MoveBatchResult result = new MoveBatchResult();
+        result.accepted = new boolean[moves.length];
+        boolean changed = false;
+        int exitIndex = -1;
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i].equals(EXIT)) {
+                exitIndex = i;
+                break;
+            }
+            result.accepted[i] = applyMoveLocked(logtag, playerID, moves[i]);
+            changed |= result.accepted[i] && !moves[i].equals(REFRESH);
+        }
+
+        long replicationSeq = 0;
+        long logVersion = 0;
+        if (changed) {
+            replicationSeq = updateBackup();
+            // at least our moves, maybe some of the other batches' too
+            logVersion = stateVersion;
+            Trace.record(MOVES_REPLICATE, playerID, logVersion);
+
+            udpateGameInterface();
+        }
+
+        // the reply is encoded after the lock is released, while other moves, joins and exits go on,
+        // so it gets a copy; deltaLock keeps the other batches' moves whole
+        deltaLock.lock();
+        try {
+            result.gameState = copyGameState(prepareGameState());
+        } finally {
+            deltaLock.unlock();
+        }
+        gameStateLock.readLock().unlock();
+
+        if (exitIndex >= 0) {
+            // leaving changes the membership, which needs the write lock
+            // applyPlayerExit updates the backup and the interface itself
+            gameStateLock.writeLock().lock();
+            result.gameState = applyPlayerExit(playerID);
+            result.accepted[exitIndex] = true;
+            gameStateLock.writeLock().unlock();
+        }
+
+        if (!awaitBackup(replicationSeq)) {
+            LOGGER.warning(logtag+"update backup fail");
+            // TODO: recover backup
+            // (Let's just let the helper thread do this job and see if it works)
+        }
+        if (!awaitDurable(logVersion)) {
+            LOGGER.warning(logtag+"move log fail");
+        }
+        Trace.record(MOVES_DONE, playerID, result.gameState.version);
+        return result;
+    }
+
+    // the actual game logic goes here, must hold the read lock of gameStateLock
+    // the cell the player leaves and the cell it enters are locked through tileLocks
+    // @return: false if the move is illegal, in which case nothing has changed
+    private boolean applyMoveLocked(String logtag, String playerID, String move){
+        Trace.record(MOVE, playerID);
+        while (true) {
+            Coord coord = playerCoordMap.get(playerID);
+            if (coord == null) {
+                LOGGER.warning(logtag+"unknown player: "+playerID);
+                return false;
+            }
+            if (move.equals(REFRESH)) {
+                return true;
+            }
+            Coord target = moveTarget(coord, move, N);
+            if (target == null) {
+                Trace.record(MOVE_OFF_BOARD, move);
+                return false;
+            }
+            int from = maze.index(coord.x, coord.y);
+            int to = maze.index(target.x, target.y);
+            boolean gainTreasure;
+
+            tileLocks.lock(from, to);
+            try {
+                if (playerCoordMap.get(playerID) != coord) {
+                    // another batch of this player has moved it meanwhile, start over from where it is now
+                    continue;
+                }
+                if (!canEnter(maze, target.x, target.y)) {
+                    Trace.record(MOVE_OCCUPIED, playerID, target.x, target.y);
+                    return false;
+                }
+                gainTreasure = maze.isTreasure(target.x, target.y);
+
+                // update player coord
+                // recorded as one change, so that the backup never gets half a move
+                Trace.record(MOVE_APPLIED, playerID, target.x, target.y);
+                deltaLock.lock();
+                try {
+                    setPlayerCoord(playerID, target);
+                    setCell(coord.x, coord.y, MazeGrid.EMPTY);
+                    setCell(target.x, target.y, maze.handleOf(playerID));
+                    if (gainTreasure) {
+                        incrPlayerScore(playerID);
+                    }
+                } finally {
+                    deltaLock.unlock();
+                }
+            } finally {
+                tileLocks.unlock(from, to);
+            }
+
+            if (gainTreasure) {
+                // respawn after the move, so that there is always the cell we just left to put it on
+                // done outside of our tiles, as the new treasure may land anywhere
+                Trace.record(MOVE_TREASURE, playerID);
+                generateRandTreasure();
+            }
+            return true;
+        }
+    }
+
+
+    // the move rules, shared with MovePredictor
+    // @return: where a player at coord ends up after move, or null if it leaves the board or is not a move
+    static Coord moveTarget(Coord coord, String move, int N){
         int newx = coord.x, newy = coord.y;
-        GameState gameState;
         switch (move){
             case REFRESH:
-                gameState = prepareGameState();
-                gameStateLock.unlock();
-                return gameState;
-            case EXIT:
-                gameState = applyPlayerExit(playerID);
-                gameStateLock.unlock();
-                return gameState;
+                break;
             case MOVE_WEST:
                 newy --; break;
             case MOVE_SOUTH:
@@ -224,80 +559,119 @@ public class Game implements GameRemote {
                 newy ++; break;
             case MOVE_NORTH:
                 newx --; break;
+            default:
+                return null;
         }
         if (newx < 0 || newx >= N || newy < 0 || newy >= N) {
-            LOGGER.info(logtag+"Illegal move (out of boundary)");
-            gameState = prepareGameState();
-            gameStateLock.unlock();
-            return gameState;
-        }
-        if (!maze[newx][newy].equals(EMPTY) && !maze[newx][newy].equals(TREASURE)) {
-            LOGGER.info(logtag+"Illegal move (occupied cell)");
-            gameState = prepareGameState();
-            gameStateLock.unlock();
-            return gameState;
-        }
-        if (maze[newx][newy].equals(TREASURE)) {
-            LOGGER.info(logtag+"gain a treasure. Congrats!");
-            generateRandTreasure();
-            incrPlayerScore(playerID);
+            return null;
         }
+        return new Coord(newx, newy);
+    }
 
-        // update player coord
-        LOGGER.info(logtag+"updating gamestate");
-        playerCoordMap.put(playerID, new Coord(newx, newy));
-        maze[coord.x][coord.y] = EMPTY;
-        maze[newx][newy] = playerID;
+    static boolean canEnter(MazeGrid maze, int x, int y){
+        return maze.isEmpty(x, y) || maze.isTreasure(x, y);
+    }
 
-        LOGGER.info(logtag+"updating change to backup");
-        boolean ok = updateBackup();
-        if (!ok) {
-            LOGGER.warning(logtag+"update backup fail");
-            // TODO: recover backup
-            // (Let's just let the helper thread do this job and see if it works)
-        }
-    
-        LOGGER.warning(logtag+"updataing game interface");
-        udpateGameInterface();
+    // called by primary server to queue the latest change for the backup
+    // the replication pipeline sends it after the gameStateLock is released
+    // sealing and queueing happen under deltaLock, so the pipeline gets the versions in order
+    // @return: sequence number to pass to awaitBackup, 0 if there is nothing to wait for
+    private long updateBackup() {    
+        deltaLock.lock();
+        try {
+            if (this.backupPlayerID.equals("")){
+                // nobody to replicate to, whoever becomes backup next gets a full GameState
+                sealPendingDelta();
+                Trace.record(BACKUP_NONE, null, stateVersion);
+                return 0;
+            }
 
-        gameState = prepareGameState();
-        gameStateLock.unlock();
-        return gameState;
+            // there are standbys only while there is a backup
+            if (!DELTA_REPLICATION) {
+                // the pipeline takes a full snapshot when it gets to this entry,
+                // the change is still sealed now so that it gets its version and goes to the move log
+                sealPendingDelta();
+                for (ReplicationPipeline standby : standbyPipelines.values()) {
+                    standby.enqueue(null);
+                }
+                return replicationPipeline.enqueue(null);
+            }
+            GameStateDelta delta = sealPendingDelta();
+            if (delta == null) {
+                return 0;
+            }
+            for (ReplicationPipeline standby : standbyPipelines.values()) {
+                standby.enqueue(delta);
+            }
+            long seq = replicationPipeline.enqueue(delta);
+            Trace.record(BACKUP_QUEUED, null, delta.version, seq);
+            return seq;
+        } finally {
+            deltaLock.unlock();
+        }
     }
 
+    // wait for the backup as long as the replication policy asks for
+    // must not be called with the gameStateLock held
+    // @return: false if the backup has not acked the change
+    private boolean awaitBackup(long replicationSeq) {
+        if (replicationSeq == 0) {
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean acked = replicationPipeline.awaitReplication(replicationSeq);
+        metrics.backupAwait.record(System.nanoTime() - start);
+        return acked;
+    }
 
-    // called by primary server to update gameState to backup
-    private boolean updateBackup() {    
-        String logtag = "[updateBackup] ";
-        if (this.backupPlayerID.equals("")){
-            LOGGER.info(logtag+" backup not exist. skiped");
+    // wait for the move log to have version on disk, same rules as awaitBackup
+    // @return: false if the log has failed
+    private boolean awaitDurable(long version) {
+        if (moveLog == null || version == 0) {
             return true;
         }
+        return moveLog.awaitDurable(version);
+    }
+
+    // starts the write-ahead log if -Dgame.wal.dir is set, the game goes on without it if it cannot be opened
+    // takes the write lock
+    private void startMoveLog() {
+        MoveLog log = MoveLog.fromSystemProperties(this);
+        if (log != null) {
+            startMoveLog(log);
+        }
+    }
 
-        LOGGER.info(logtag+"playersize: " + playerAddrMap.size());
-        PlayerAddr backupPlayerAddr = playerAddrMap.get(backupPlayerID);
-        Registry registry = null;
-        GameRemote remote = null;
+    void startMoveLog(MoveLog log) {
         try {
-            registry = LocateRegistry.getRegistry(backupPlayerAddr.ip_addr, backupPlayerAddr.port);
-            if (registry == null ){
-                return false;
-            }
-            remote = (GameRemote) registry.lookup(backupPlayerID);
+            // the snapshot the log starts with includes everything sealed so far,
+            // deltas are appended once moveLog is set
+            log.open();
+        } catch (IOException e) {
+            LOGGER.warning("[startMoveLog] fail to open move log, going on without: " + e);
+            return;
+        }
+        gameStateLock.writeLock().lock();
+        moveLog = log;
+        gameStateLock.writeLock().unlock();
+        Thread flusher = new Thread(log, "wal-" + myPlayerAddr.playerID);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
 
-            GameState gameState = prepareGameState();
-            remote.updateGameState(gameState);
-            return true;
-        }catch (Exception e) {
-            // TODO: customize error handling, for this case: backup fail or something
-            // TODO: I think using handleError is problematic
-            //       because if backup has failed, we should not rebind its tag!
-            //       so I've commented out the following line
-            // Common.handleError(registry, remote, backupPlayerID, e);
-            LOGGER.warning(logtag+"update backup fail");
-            return false;
+    private void startReplicationPipeline() {
+        replicationPipeline = ReplicationPipeline.fromSystemProperties(this);
+        (new Thread(replicationPipeline)).start();
+    }
+
+    private void startStateBroadcaster() {
+        if (!BROADCAST) {
+            return;
         }
-        
+        stateBroadcaster = StateBroadcaster.fromSystemProperties(this);
+        Thread broadcasterThread = new Thread(stateBroadcaster);
+        broadcasterThread.setDaemon(true);
+        broadcasterThread.start();
     }
 
     // called by primary server itself to promote another server to backup
@@ -323,7 +697,15 @@ public class Game implements GameRemote {
         LOGGER.info(logtag+" resetting current backup");
         this.backupPlayerID = "";
 
-        GameState gameState = prepareGameState();
+        // the head of the chain has the state already, it only has to take over
+        if (promoteStandbyToBackup()) {
+            // whatever it has missed, and the shorter chain
+            updateBackup();
+            publishRoles();
+            return;
+        }
+
+        GameState gameState = prepareReplicaState();
         gameState.isBecomeBackup = true;
         // find somebody to promote to backup
         LOGGER.info(logtag+" finding another player to become backup");
@@ -352,6 +734,7 @@ public class Game implements GameRemote {
                     }      
                 }                               
             } catch (Exception e) {
+                stubCache.invalidate(playerID);
                 LOGGER.warning(logtag+" STRANGE! fail to promote player to backup, id: "+ playerID);
                 // do nothing
             } 
@@ -364,6 +747,8 @@ public class Game implements GameRemote {
                 //       let's leave it to the primaryHelper?
             }
         }
+        // also when nobody could be promoted, so that the tracker stops handing out the old backup
+        publishRoles();
     }
 
     // this method is used by the primary server (not remote call)
@@ -375,14 +760,147 @@ public class Game implements GameRemote {
     // side effect 1: if backup is removed, it will call promoteSomeoneToBackup
     // side effect 2: if others are remove, it will call updateBackup
     public void forceRemovePlayer(String playerID){
-        String logtag = "[forceRemovePlayer] ";
+        forceRemovePlayers(Collections.singleton(playerID));
+    }
+
+    // same as forceRemovePlayer, but all the players are removed in one go
+    // so the backup gets a single update (or a single promotion if it is among them)
+    public void forceRemovePlayers(Collection<String> playerIDs){
+        String logtag = "[forceRemovePlayers] ";
+
+        gameStateLock.writeLock().lock();
+        boolean backupRemoved = false;
+        for (String playerID : playerIDs) {
+            if (!playerAddrMap.containsKey(playerID)) {
+                // already gone, e.g. it has exited while we were pinging it
+                continue;
+            }
+            removePlayerState(playerID);
+            if (playerID.equals(backupPlayerID)) {
+                backupRemoved = true;
+            }
+        }
+        udpateGameInterface();
+        LOGGER.info(logtag+" removed players: "+playerIDs);
 
-        applyPlayerExit(playerID);
-        LOGGER.info(logtag+" finish applyPlayerExit");
+        if (backupRemoved) {
+            LOGGER.info(logtag+"backup removed. try to promote another one to backup");
+            promoteSomeoneToBackup();
+        } else {
+            updateBackup();
+        }
+        gameStateLock.writeLock().unlock();
         // TODO: again this is a place where we may think of removing the player from the tracker
         //       if the "remove player from the tracker only upon new player join game" strategy has problem
     }
 
+    // promotes the head of the chain, a standby that does not answer is dropped and the next one tried
+    // no state goes over, the standby has it from its pipeline and catches up on a version gap
+    // must hold the write lock
+    // @return: false if the chain has run out, the caller has to find somebody else
+    private boolean promoteStandbyToBackup() {
+        String logtag = "[promoteStandbyToBackup] ";
+        while (!standbyPlayerIDs.isEmpty()) {
+            String playerID = standbyPlayerIDs.get(0);
+            dropStandby(playerID);
+            PlayerAddr playerAddr = playerAddrMap.get(playerID);
+            if (playerAddr == null || playerID.equals(myPlayerAddr.playerID)) {
+                continue;
+            }
+            try {
+                GameRemote playerStub = getPlayerStub(playerAddr);
+                playerStub.promoteSelfToBackup();
+                this.backupPlayerID = playerID;
+                LOGGER.info(logtag+"standby "+playerID+" is backup now, "+standbyPlayerIDs.size()+" standbys left");
+                return true;
+            } catch (Exception e) {
+                stubCache.invalidate(playerID);
+                LOGGER.warning(logtag+"fail to promote standby "+playerID+": "+e);
+            }
+        }
+        return false;
+    }
+
+    // appoints normal players as standbys until the chain is REPLICAS - 1 long,
+    // each gets the full state from its pipeline, in the background
+    // called by the primary helper after every sweep
+    void refillStandbys() {
+        if (standbyPlayerIDs.size() >= REPLICAS - 1 || backupPlayerID.equals("")) {
+            return;
+        }
+        gameStateLock.writeLock().lock();
+        try {
+            if (gameRole != PRIMARY || backupPlayerID.equals("")) {
+                return;
+            }
+            List<String> appointed = new ArrayList<>();
+            for (String playerID : playerAddrMap.keySet()) {
+                if (standbyPlayerIDs.size() >= REPLICAS - 1) {
+                    break;
+                }
+                if (!playerID.equals(myPlayerAddr.playerID) && !isReplica(playerID)) {
+                    standbyPlayerIDs.add(playerID);
+                    appointed.add(playerID);
+                }
+            }
+            if (appointed.isEmpty()) {
+                return;
+            }
+            LOGGER.info("[refillStandbys] new standbys "+appointed+", chain "+backupPlayerID+" "+standbyPlayerIDs);
+            startStandbyPipelines();
+            for (String playerID : appointed) {
+                standbyPipelines.get(playerID).enqueue(null);
+            }
+            recordChain();
+            // so that the backup knows the chain
+            updateBackup();
+        } finally {
+            gameStateLock.writeLock().unlock();
+        }
+    }
+
+    // starts a pipeline for every standby that has none, e.g. for the chain a new primary takes over
+    // must hold the write lock
+    private void startStandbyPipelines() {
+        for (String playerID : standbyPlayerIDs) {
+            standbyPipelines.computeIfAbsent(playerID, id -> {
+                ReplicationPipeline pipeline = ReplicationPipeline.forStandby(this, id);
+                Thread thread = new Thread(pipeline, "standby-" + id);
+                thread.setDaemon(true);
+                thread.start();
+                return pipeline;
+            });
+        }
+    }
+
+    // takes playerID out of the chain, if it is in there
+    // must hold the write lock
+    private void dropStandby(String playerID) {
+        if (!standbyPlayerIDs.remove(playerID)) {
+            return;
+        }
+        ReplicationPipeline pipeline = standbyPipelines.remove(playerID);
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        recordChain();
+    }
+
+    // the chain goes out with the next delta
+    private void recordChain() {
+        deltaLock.lock();
+        try {
+            pendingDelta.standbys = new ArrayList<>(standbyPlayerIDs);
+        } finally {
+            deltaLock.unlock();
+        }
+    }
+
+    // the backup or a standby, i.e. fed by a replication pipeline rather than the StateBroadcaster
+    boolean isReplica(String playerID) {
+        return playerID.equals(backupPlayerID) || standbyPlayerIDs.contains(playerID);
+    }
+
     /******  End of for primary server only  ******/
 
     
@@ -400,7 +918,7 @@ public class Game implements GameRemote {
         String logtag = "[promoteSelfToPrimary] ";
  
         LOGGER.info(logtag+"obtaining gamestatelock");
-        gameStateLock.lock();
+        gameStateLock.writeLock().lock();
         LOGGER.info(logtag+"obtained gamestatelock");
 
         // 1.1 update setting to make self primary
@@ -408,13 +926,19 @@ public class Game implements GameRemote {
         String oldPrimaryPlayerID = this.primaryPlayerID;
         this.primaryPlayerID = myPlayerAddr.playerID;
         this.backupPlayerID = "";
+        this.pendingDelta = new GameStateDelta();
+        // the chain we got last may still have us in it, if the primary died before its next delta reached us
+        dropStandby(myPlayerAddr.playerID);
+        startReplicationPipeline();
+        startStateBroadcaster();
+        startMoveLog();
         LOGGER.info(logtag+" finish setting self to primary");
 
         // 1.2 remove the old primary from gamestate
         this.forceRemovePlayer(oldPrimaryPlayerID);
         LOGGER.info(logtag+" finish removing old primary player");
 
-        GameState gameState = prepareGameState();
+        GameState gameState = prepareReplicaState();
         gameState.shouldChangePrimary = true;
         gameState.primaryPlayerID = this.primaryPlayerID;
         // 2. notify other players
@@ -441,7 +965,7 @@ public class Game implements GameRemote {
                     }      
                 }                               
             } catch (Exception e) {
-                // do nothing
+                stubCache.invalidate(playerID);
             } 
 
             if (!updateSucceeded){
@@ -449,6 +973,9 @@ public class Game implements GameRemote {
                 LOGGER.warning(logtag+" fail to update player that I'm the new primary. id: "+playerID);
             } else {
                 LOGGER.info(logtag+" successfully update player that I'm the new primary. id: "+playerID);
+                if (stateBroadcaster != null) {
+                    stateBroadcaster.subscribe(playerID, gameState.version);
+                }
             }
         }
 
@@ -456,6 +983,9 @@ public class Game implements GameRemote {
         // there is no gurantee that we can find somebody to promote
         // the reason to put it after update all other players
         // is that we want all other player to have the correct knowledge of primaryPlayerID
+        // the chain we have from the old primary is fed by us from now on, starting at the state just sent,
+        // and its head becomes backup without a search or another full state
+        startStandbyPipelines();
         this.promoteSomeoneToBackup();
         LOGGER.info(logtag+" finish promote somebody to backup");
 
@@ -464,7 +994,7 @@ public class Game implements GameRemote {
         (new Thread(new PrimaryHelper(this))).start();
         LOGGER.info(logtag+" started the new primary helper thread");
 
-        gameStateLock.unlock();
+        gameStateLock.writeLock().unlock();
 
         // 5. clear critical flag
     }
@@ -474,62 +1004,142 @@ public class Game implements GameRemote {
     /******  remote method for all players  ******/
 
     public PlayerAddr getPrimaryServer() {
-        LOGGER.info("getPrimaryServer call");
+        long start = System.nanoTime();
+        try {
+            return doGetPrimaryServer();
+        } finally {
+            metrics.getPrimaryServer.record(System.nanoTime() - start);
+        }
+    }
+
+    private PlayerAddr doGetPrimaryServer() {
         PlayerAddr result = playerAddrMap.get(primaryPlayerID);
-        LOGGER.info("primary server result: " + result.playerID);
+        Trace.record(GET_PRIMARY, result.playerID);
         return result;
     }
 
     public void ping(){
-        return ;
+        // nothing to time, counted all the same
+        metrics.ping.record(0);
     }
 
     // called by primary server to update backup server state
     // previously this method is for backup server only,
     // now I'm using it for normal server also
     public void updateGameState(GameState gameState){
-        String logtag = "[updateGameState] ";
+        long start = System.nanoTime();
+        try {
+            doUpdateGameState(gameState);
+        } finally {
+            metrics.updateGameState.record(System.nanoTime() - start);
+        }
+    }
 
-        LOGGER.info(logtag+"obtaining gamestatelock");
-        gameStateLock.lock();
-        LOGGER.info(logtag+"obtained gamestatelock");
+    private void doUpdateGameState(GameState gameState){
+        Trace.record(UPDATE_LOCKING, null, gameState.version);
+        gameStateLock.writeLock().lock();
+        Trace.record(UPDATE_LOCKED, null, gameState.version);
 
-        LOGGER.info(logtag + "update player size: " + gameState.playerAddrMap.size());
         maze = gameState.maze;
         playerCoordMap = gameState.playerCoordMap;
         playerScores = gameState.playerScores;
         playerAddrMap = gameState.playerAddrMap;
+        if (gameState.standbyPlayerIDs != null && gameState.standbyPlayerIDs != standbyPlayerIDs) {
+            standbyPlayerIDs = new CopyOnWriteArrayList<>(gameState.standbyPlayerIDs);
+        }
+        stateVersion = gameState.version;
 
-        LOGGER.info(logtag+"finish update local gamestate");
+        Trace.record(UPDATE_APPLIED, null, gameState.version, gameState.playerAddrMap.size());
 
         if (gameState.isBecomeBackup) {
-            LOGGER.info(logtag+"promoting self to backup");
+            Trace.record(UPDATE_AS_BACKUP);
             promoteSelfToBackup();
         }
 
         if (gameState.shouldChangePrimary){
-            LOGGER.info(logtag+"changing local pointer to primary server");
+            Trace.record(UPDATE_PRIMARY, gameState.primaryPlayerID);
             this.primaryPlayerID = gameState.primaryPlayerID;
         }
         if (gameState.shouldChangeBackup){
-            LOGGER.info(logtag+"changing local pointer to backup server");
+            Trace.record(UPDATE_BACKUP, gameState.backupPlayerID);
             this.backupPlayerID = gameState.backupPlayerID;
         }
 
         udpateGameInterface();
+        pushToPredictor();
+        lastHeard.heard(primaryPlayerID);
+
+        gameStateLock.writeLock().unlock();
+    }
+
+    // called by primary server to replicate a change to the backup server
+    public boolean applyGameStateDelta(GameStateDelta delta){
+        long start = System.nanoTime();
+        try {
+            return doApplyGameStateDelta(delta);
+        } finally {
+            metrics.applyGameStateDelta.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean doApplyGameStateDelta(GameStateDelta delta){
+        // stale or not, the primary is alive
+        lastHeard.heard(primaryPlayerID);
+        Trace.record(DELTA_LOCKING, null, delta.version);
+        gameStateLock.writeLock().lock();
+        Trace.record(DELTA_LOCKED, null, delta.version);
+
+        if (delta.version <= stateVersion) {
+            // already covered by a full gamestate we got earlier
+            Trace.record(DELTA_STALE, null, delta.version, stateVersion);
+            gameStateLock.writeLock().unlock();
+            return true;
+        }
+        if (delta.baseVersion != stateVersion) {
+            Trace.record(DELTA_GAP, null, delta.baseVersion, stateVersion);
+            gameStateLock.writeLock().unlock();
+            return false;
+        }
+
+        delta.applyTo(prepareGameState());
+        stateVersion = delta.version;
+        Trace.record(DELTA_APPLIED, null, stateVersion);
+
+        udpateGameInterface();
+        pushToPredictor();
 
-        gameStateLock.unlock();
+        gameStateLock.writeLock().unlock();
+        return true;
+    }
+
+    // makes the state the primary has just pushed to us the base of our next prediction
+    // a copy, as the following pushes change the live state; must hold the write lock
+    private void pushToPredictor() {
+        if (movePredictor != null && gameRole != PRIMARY) {
+            movePredictor.pushed(copyGameState(prepareGameState()));
+        }
     }
 
     // you should call this method when you're sure that 
     // the players knows the correct primaryPlayer
     // TODO add log
-    public void promoteSelfToBackup(){        
+    public void promoteSelfToBackup(){
+        long start = System.nanoTime();
+        try {
+            doPromoteSelfToBackup();
+        } finally {
+            metrics.promoteSelfToBackup.record(System.nanoTime() - start);
+        }
+    }
+
+    private void doPromoteSelfToBackup(){
         String logtag = "[promoteSelfToBackup] ";
 
         // 1. update setting to make self backup
         gameRole = BACKUP;
         backupPlayerID = myPlayerAddr.playerID;
+        // a promoted standby is out of the chain, whether or not the primary's next delta gets here
+        standbyPlayerIDs.remove(myPlayerAddr.playerID);
         LOGGER.info(logtag+"finish updating my setting to backup");
 
         // 2. start the backupHelper thread 
@@ -541,12 +1151,34 @@ public class Game implements GameRemote {
 
     /******  End of remote method for all players  ******/
 
+    // callers must call stubCache.invalidate if a call on the returned stub fails
+    // players with a MoveServer get a MoveClient, which keeps its own connection
     GameRemote getPlayerStub(PlayerAddr playerAddr) throws RemoteException, NotBoundException{
-        String targetPlayerIP = playerAddr.ip_addr;
-        String targetPlayerID = playerAddr.playerID;
-        Registry targetPlayerRegistry = LocateRegistry.getRegistry(targetPlayerIP);
-        GameRemote targetPlayerStub = (GameRemote) targetPlayerRegistry.lookup(targetPlayerID);
-        return targetPlayerStub;
+        if (NIO_TRANSPORT && playerAddr.movePort != 0) {
+            return getMoveClient(playerAddr);
+        }
+        return stubCache.get(playerAddr);
+    }
+
+    // one connection per player, replaced when the player shows up at another endpoint
+    private MoveClient getMoveClient(PlayerAddr playerAddr) {
+        return moveClients.compute(playerAddr.playerID, (playerID, client) -> {
+            if (client != null && client.playerAddr.ip_addr.equals(playerAddr.ip_addr)
+                    && client.playerAddr.movePort == playerAddr.movePort) {
+                return client;
+            }
+            if (client != null) {
+                client.close();
+            }
+            return new MoveClient(playerAddr, stubCache);
+        });
+    }
+
+    private void closeMoveClient(String playerID) {
+        MoveClient client = moveClients.remove(playerID);
+        if (client != null) {
+            client.close();
+        }
     }
 
     public boolean joinGame() {
@@ -563,6 +1195,9 @@ public class Game implements GameRemote {
 
                 this.N = response.dim;
                 this.K = response.treasures_num;
+                this.leaseMillis = response.leaseMillis;
+                // only used once we are primary, but N is known from here on
+                this.tileLocks = new TileLocks(N, LOCK_TILE_SIZE);
 
                 boolean joinSucceed = false;
                 if (response.playerAddr == null) {
@@ -580,14 +1215,29 @@ public class Game implements GameRemote {
                     LOGGER.info(logtag + "succeeded in joining as primary server. initializing.");
                     this.gameRole = PRIMARY;
                     this.primaryPlayerID = myPlayerAddr.playerID;
-                    initGameState();
+                    if (!restoreGameState()) {
+                        initGameState();
+                    }
+                    startReplicationPipeline();
+                    startStateBroadcaster();
+                    startMoveLog();
+                    publishRoles();
                     joinSucceed = true;
                     (new Thread(new PrimaryHelper(this))).start();
                     LOGGER.info(logtag + "join game succeeded");
 
                 } else {
+                    // straight to the primary the tracker knows of,
+                    // if that is stale we ask the backup (or anybody) who the primary is
+                    if (response.primaryAddr != null) {
+                        LOGGER.info(logtag + "trying primary from tracker: " + response.primaryAddr.playerID);
+                        joinSucceed = tryJoinPrimary(response.primaryAddr);
+                    }
+                }
 
-                    PlayerAddr primaryServerAddr = contactPlayer(response.playerAddr);
+                if (!joinSucceed && response.playerAddr != null) {
+                    PlayerAddr contactAddr = response.backupAddr != null ? response.backupAddr : response.playerAddr;
+                    PlayerAddr primaryServerAddr = contactPlayer(contactAddr);
                     if (primaryServerAddr == null) {
                         LOGGER.warning(logtag + "get primaryServerAddr null, something is very very wrong!");
                         Thread.sleep(SLEEP_PERIOD);
@@ -600,11 +1250,15 @@ public class Game implements GameRemote {
                 }
 
                 if (joinSucceed) {
-                    LOGGER.info(logtag + "join succeeded. init game interface.");
-                    gameInterface = GameInterface.initGameInterface(myPlayerAddr.playerID, Common.prepareInterfaceData(prepareGameState(), gameRole));
+                    if (GUI) {
+                        LOGGER.info(logtag + "join succeeded. init game interface.");
+                        gameInterface = GameInterface.initGameInterface(myPlayerAddr.playerID, Common.prepareInterfaceData(prepareGameState(), gameRole));
+                        renderScheduler = new RenderScheduler(gameInterface, this::renderSnapshot, () -> gameRole);
+                    }
                     if (!this.trackerStub.addPlayerAddr(this.myPlayerAddr)) {
                         LOGGER.severe(logtag + "fail to add self address to tracker");
                     }
+                    startLeaseRenewer();
                     break;
                 }
 
@@ -620,6 +1274,96 @@ public class Game implements GameRemote {
         return true;
     }
 
+    // keeps our tracker entry alive, renewing three times per lease so that one lost call does not drop us
+    private void startLeaseRenewer() {
+        leaseRenewer = new Thread(() -> {
+            String logtag = "[leaseRenewer] ";
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(Math.max(1, leaseMillis / 3));
+                    if (!trackerStub.renewLease(myPlayerAddr)) {
+                        // the lease ran out before we got through, e.g. after a long pause
+                        LOGGER.warning(logtag + "lease lost, registering again");
+                        trackerStub.addPlayerAddr(myPlayerAddr);
+                    }
+                    if (rolesRefused) {
+                        // the primary before us holds the tracker's roles until its lease runs out
+                        publishRoles();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RemoteException e) {
+                    // assume the tracker never fails, retry on the next round
+                    LOGGER.warning(logtag + "fail to renew lease: " + e);
+                }
+            }
+        }, "lease-" + myPlayerAddr.playerID);
+        leaseRenewer.setDaemon(true);
+        leaseRenewer.start();
+    }
+
+    // stops answering and renewing as if the process had died, for the load generator
+    // the helpers find out on their next ping of themselves and stop too
+    void kill() {
+        if (leaseRenewer != null) {
+            leaseRenewer.interrupt();
+        }
+        if (rolePublisher != null) {
+            rolePublisher.shutdownNow();
+        }
+        if (moveServer != null) {
+            moveServer.close();
+        }
+        if (moveLog != null) {
+            moveLog.close();
+        }
+        metrics.close();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            // killed already
+        }
+        try {
+            LocateRegistry.getRegistry().unbind(myPlayerAddr.playerID);
+        } catch (Exception e) {
+            // nobody finds us by name any more either way
+        }
+    }
+
+    // as primary, tells the tracker who the primary and backup are now
+    // the state version orders the calls of an old and a new primary at the tracker
+    void publishRoles() {
+        if (gameRole != PRIMARY || rolePublisher == null) {
+            return;
+        }
+        PlayerAddr backupAddr = playerAddrMap.get(backupPlayerID);
+        long version = stateVersion;
+        rolePublisher.execute(() -> {
+            try {
+                rolesRefused = !trackerStub.publishRoles(myPlayerAddr, backupAddr, version);
+                if (rolesRefused) {
+                    LOGGER.info("[publishRoles] tracker refused roles at version " + version + ", retrying with the next renewal");
+                }
+            } catch (RemoteException e) {
+                // joiners just take the longer way until the next change
+                LOGGER.warning("[publishRoles] fail to publish roles to tracker: " + e);
+            }
+        });
+    }
+
+    // stops renewing and takes our entry off the tracker, so that it is not handed out until the lease runs out
+    private void leaveTracker() {
+        if (leaseRenewer != null) {
+            leaseRenewer.interrupt();
+        }
+        try {
+            trackerStub.removePlayerAddr(myPlayerAddr);
+        } catch (RemoteException e) {
+            // the lease runs out anyway
+            LOGGER.warning("[leaveTracker] fail to remove self from tracker: " + e);
+        }
+    }
+
     private PlayerAddr contactPlayer(PlayerAddr playerAddr) throws RemoteException {
         // contact this player to get the primary server contact
         LOGGER.info("contacting player " + playerAddr.playerID + " to get primary");
@@ -635,6 +1379,7 @@ public class Game implements GameRemote {
                 primaryServerAddr =  targetPlayerStub.getPrimaryServer();
             }
         } catch (Exception e) {
+            stubCache.invalidate(playerAddr.playerID);
             LOGGER.warning("another player with id: "+ playerAddr.playerID+" uncontactable! " + e);
             isUncontactable = true;
         }
@@ -670,8 +1415,11 @@ public class Game implements GameRemote {
                 } else {
                     gameState = primaryPlayerStub.addOtherPlayer(this.myPlayerAddr);
                 }
+            } catch (IllegalStateException e) {
+                LOGGER.info(logtag + primaryServerAddr.playerID + " is no longer the primary");
+                return false;
             } catch (Exception e) {
-
+                stubCache.invalidate(primaryServerAddr.playerID);
                 isUncontactable = true;
             }
 
@@ -700,15 +1448,14 @@ public class Game implements GameRemote {
     }
 
     private GameState remoteApplyMove(String nextMove) {
+        String primaryPlayerID = this.primaryPlayerID;
         PlayerAddr primaryPlayerAddr = playerAddrMap.get(primaryPlayerID);
-        Registry registry = null;
-        GameRemote primaryRemote = null;
         try {
-            registry = LocateRegistry.getRegistry(primaryPlayerAddr.ip_addr, primaryPlayerAddr.port);
-            primaryRemote = (GameRemote) registry.lookup(primaryPlayerID);
+            GameRemote primaryRemote = getPlayerStub(primaryPlayerAddr);
             GameState gameState = primaryRemote.applyPlayerMove(this.myPlayerAddr.playerID, nextMove);
             return gameState;
         }catch (Exception e) {
+            stubCache.invalidate(primaryPlayerID);
             LOGGER.warning("[remoteApplyMove] fails because primary uncontactable");
             // TODO: I think handleError is wrong because it rebinds the primaryRemote
             // Common.handleError(registry, primaryRemote, primaryPlayerID, e);
@@ -717,6 +1464,110 @@ public class Game implements GameRemote {
         }
     }
 
+    private MoveBatchResult remoteApplyMoves(String[] nextMoves) {
+        String primaryPlayerID = this.primaryPlayerID;
+        PlayerAddr primaryPlayerAddr = playerAddrMap.get(primaryPlayerID);
+        try {
+            GameRemote primaryRemote = getPlayerStub(primaryPlayerAddr);
+            return primaryRemote.applyPlayerMoves(this.myPlayerAddr.playerID, nextMoves);
+        }catch (Exception e) {
+            stubCache.invalidate(primaryPlayerID);
+            LOGGER.warning("[remoteApplyMoves] fails because primary uncontactable");
+            return null;
+        }
+    }
+
+    // applies the moves in order, non-game input is skipped
+    // the moves before an EXIT go to the primary as one batch, anything after it is dropped
+    public void moveBatch(List<String> nextMoves) throws InterruptedException{
+        List<String> batch = new ArrayList<>();
+        for (String nextMove : nextMoves) {
+            if (nextMove.equals(EXIT)) {
+                applyMoves(batch);
+                move(EXIT);
+                return;
+            }
+            if (!isGameMove(nextMove)) {
+                System.out.println("wrong input for game move");
+                continue;
+            }
+            batch.add(nextMove);
+        }
+        applyMoves(batch);
+    }
+
+    private void applyMoves(List<String> nextMoves) throws InterruptedException{
+        if (BROADCAST && this.gameRole != PRIMARY && nextMoves.contains(REFRESH)) {
+            // every change is pushed to us, so a refresh is only a redraw
+            nextMoves = new ArrayList<>(nextMoves);
+            nextMoves.removeIf(move -> move.equals(REFRESH));
+            if (nextMoves.isEmpty()) {
+                udpateGameInterface();
+                return;
+            }
+        }
+        if (nextMoves.isEmpty()) {
+            return;
+        }
+        String[] batch = nextMoves.toArray(new String[0]);
+        MoveBatchResult result;
+        // a local result is our live state, not a copy
+        boolean local = this.gameRole == PRIMARY;
+        if (local) {
+            // I am the primary server, I can just update my gamestate
+            Trace.record(APPLY_LOCAL, null, batch.length);
+            result = this.applyPlayerMoves(this.myPlayerAddr.playerID, batch);
+        } else {
+            Trace.record(APPLY_REMOTE, null, batch.length);
+            if (movePredictor != null) {
+                GameState predicted = movePredictor.predict(batch);
+                if (predicted != null && renderScheduler != null) {
+                    // not through showGameState, a prediction is shown whatever its version
+                    renderScheduler.showPrediction(Common.prepareInterfaceData(predicted, gameRole));
+                }
+            }
+            result = remoteApplyMoves(batch);
+
+            // if error is something like primary server uncontactable, then sleep and retry..
+            while (result == null) {
+                Trace.record(APPLY_RETRY, null, batch.length);
+                Thread.sleep(SLEEP_PERIOD);
+                if (this.gameRole == PRIMARY) {
+                    // we have been promoted meanwhile
+                    local = true;
+                    result = this.applyPlayerMoves(this.myPlayerAddr.playerID, batch);
+                } else {
+                    result = remoteApplyMoves(batch);
+                }
+            }
+        }
+        if (movePredictor != null && this.gameRole != PRIMARY) {
+            int rolledBack = movePredictor.reconcile(result);
+            if (rolledBack > 0) {
+                Trace.record(APPLY_ROLLED_BACK, null, rolledBack);
+            }
+        }
+        Trace.record(APPLY_DONE, null, result.gameState.version);
+        if (local) {
+            udpateGameInterface();
+        } else {
+            showGameState(result.gameState);
+        }
+    }
+
+    private static boolean isGameMove(String move) {
+        switch (move) {
+            case REFRESH:
+            case MOVE_WEST:
+            case MOVE_SOUTH:
+            case MOVE_EAST:
+            case MOVE_NORTH:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public void move(String nextMove) throws InterruptedException{
         String logtag = "[move] ";
         switch (nextMove) {
@@ -725,33 +1576,12 @@ public class Game implements GameRemote {
             case MOVE_SOUTH:
             case MOVE_EAST:
             case MOVE_NORTH:
-                if (this.gameRole == PRIMARY) {
-                    // I am the primary server, I can just update my gamestate
-                    LOGGER.info(logtag+"is primary, applying move locally");
-                    GameState gameState = this.applyPlayerMove(this.myPlayerAddr.playerID, nextMove);
-                    LOGGER.info(logtag+"finish apply. updating");
-                    gameInterface.updateInterface(Common.prepareInterfaceData(gameState, gameRole));
-                } else {
-                    LOGGER.info(logtag+"is not primary, applying move remotely");
-                    GameState gameState = remoteApplyMove(nextMove);
-
-                    // if error is something like primary server uncontactable, then sleep and retry..
-                    while (gameState == null) {
-                        LOGGER.info(logtag+"apply move remote fails. sleeping and retry");
-                        Thread.sleep(SLEEP_PERIOD);
-                        gameState = remoteApplyMove(nextMove);
-                    }
-                    LOGGER.info(logtag+"apply move remote succeeded. updating interface");
-                    InterfaceData interfaceData = Common.prepareInterfaceData(gameState, gameRole);
-                    gameInterface.updateInterface(interfaceData);
-                }
-
+                applyMoves(Collections.singletonList(nextMove));
                 break;                
             case EXIT:
                 // exit
                 
                 // keep retrying until exit successfully            
-                // TODO: shall we let the tracker know we have exited?
                 while (true) {
                     boolean exitSucceeded = false;
                     switch (this.gameRole){
@@ -794,6 +1624,7 @@ public class Game implements GameRemote {
                     }
 
                     if (exitSucceeded){
+                        leaveTracker();
                         break;
                     }
 
@@ -819,17 +1650,12 @@ public class Game implements GameRemote {
     }
 
     private void initMaze() {
-        maze = new String[this.N][this.N];
-        for (int i=0; i<N; i++){
-            for (int j=0; j<N; j++){
-                maze[i][j] = EMPTY;
-            }
-        }
+        maze = new MazeGrid(this.N);
     }
 
     private void initPlayerData() {
         Coord emptyCoord = getRandEmptyCoord();
-        maze[emptyCoord.x][emptyCoord.y] = myPlayerAddr.playerID;
+        maze.set(emptyCoord.x, emptyCoord.y, maze.addPlayer(myPlayerAddr.playerID));
         playerCoordMap.put(myPlayerAddr.playerID, emptyCoord);
         playerScores.put(myPlayerAddr.playerID, 0);
         playerAddrMap.put(myPlayerAddr.playerID, myPlayerAddr);
@@ -841,11 +1667,83 @@ public class Game implements GameRemote {
         initPlayerData();
     }
 
+    // for a new primary of an empty game, picks up the board from the move log of an earlier game, if any
+    // the tracker had nobody alive, so every other player of that game is gone and is dropped,
+    // a player that comes back with the same playerID gets its place and score back
+    // @return: false if there is nothing to restore
+    private boolean restoreGameState() {
+        String logtag = "[restoreGameState] ";
+        File dir = MoveLog.logDir();
+        if (dir == null) {
+            return false;
+        }
+        GameState gameState = MoveLog.restore(dir);
+        if (gameState == null) {
+            return false;
+        }
+        if (gameState.maze.N != N) {
+            LOGGER.warning(logtag + "logged board is " + gameState.maze.N + "x" + gameState.maze.N + ", not " + N + ", starting a new game");
+            return false;
+        }
+
+        gameStateLock.writeLock().lock();
+        maze = gameState.maze;
+        playerCoordMap = gameState.playerCoordMap;
+        playerScores = gameState.playerScores;
+        playerAddrMap = gameState.playerAddrMap;
+        stateVersion = gameState.version;
+        for (String playerID : new ArrayList<>(playerAddrMap.keySet())) {
+            if (!playerID.equals(myPlayerAddr.playerID)) {
+                removePlayerState(playerID);
+            }
+        }
+        if (playerCoordMap.containsKey(myPlayerAddr.playerID)) {
+            playerAddrMap.put(myPlayerAddr.playerID, myPlayerAddr);
+        } else {
+            initPlayerData();
+        }
+        // the removals go into the next version
+        sealPendingDelta();
+        gameStateLock.writeLock().unlock();
+
+        LOGGER.info(logtag + "restored game at version " + stateVersion + " with " + playerScores.size() + " players");
+        return true;
+    }
+
     /******* auxiliary *******/
 
+    // replies and pushes may arrive out of order, a state older than what is on screen is not shown
+    // gameState must be a copy that nobody changes any more
+    private void showGameState(GameState gameState) {
+        if (renderScheduler != null) {
+            renderScheduler.show(gameState);
+        }
+    }
+
+    // the live state has changed, called with the gameStateLock held
+    // only tells the scheduler, the state is copied when the next frame is rendered
     private void udpateGameInterface() {
-        if (gameInterface != null ) {
-            gameInterface.updateInterface(Common.prepareInterfaceData(prepareGameState(), gameRole));
+        if (renderScheduler != null) {
+            renderScheduler.liveChanged();
+        }
+    }
+
+    // a copy of the live state for the next frame, taken on the EDT
+    // moves change the state under the read lock, each one inside deltaLock, so holding both gives whole moves
+    // @return: null if the gameStateLock is taken, the EDT never waits for the game
+    private GameState renderSnapshot() {
+        if (!gameStateLock.readLock().tryLock()) {
+            return null;
+        }
+        try {
+            deltaLock.lock();
+            try {
+                return copyGameState(prepareGameState());
+            } finally {
+                deltaLock.unlock();
+            }
+        } finally {
+            gameStateLock.readLock().unlock();
         }
     }
 
@@ -854,11 +1752,7 @@ public class Game implements GameRemote {
         String logtag = "[applyPlayerExit] ";
 
         LOGGER.info(logtag+"removing player.");
-        Coord coord = playerCoordMap.get(playerID);
-        maze[coord.x][coord.y] = EMPTY;
-        playerAddrMap.remove(playerID);
-        playerCoordMap.remove(playerID);
-        playerScores.remove(playerID);
+        removePlayerState(playerID);
         udpateGameInterface();
         LOGGER.info(logtag+"player removed from gamestate.");
 
@@ -868,16 +1762,38 @@ public class Game implements GameRemote {
             promoteSomeoneToBackup();
         } else {
             LOGGER.info(logtag+"normal player removed. try to update change to backup");
-            boolean ok = updateBackup();
-            if (!ok){
-                LOGGER.info(logtag+"failed to update change to backup. either no backup/backup is dead. Ignore and let helper deal with it ");
-                //TODO: recover backup
-                // Let's leave it to the helper thread and see whether it works well
-                // return null;
-            }
+            // not waiting for the backup here, as we may be holding the gameStateLock
+            // if the backup is dead, let the helper deal with it
+            updateBackup();
         }
 
-        return prepareGameState();
+        // sent to the leaving player after the write lock is released
+        return copyGameState(prepareGameState());
+    }
+
+    // removes the player from the maze and all the maps, without telling the backup
+    private void removePlayerState(String playerID) {
+        Coord coord = playerCoordMap.get(playerID);
+        if (coord != null) {
+            setCell(coord.x, coord.y, MazeGrid.EMPTY);
+        }
+        maze.removePlayer(playerID);
+        playerAddrMap.remove(playerID);
+        playerCoordMap.remove(playerID);
+        playerScores.remove(playerID);
+        closeMoveClient(playerID);
+        failureDetector.remove(playerID);
+        lastHeard.remove(playerID);
+        dropStandby(playerID);
+        if (stateBroadcaster != null) {
+            stateBroadcaster.unsubscribe(playerID);
+        }
+        // a player that joins and leaves within one delta is never seen by the backup
+        if (!pendingDelta.joinedPlayers.removeIf(join -> join.playerAddr.playerID.equals(playerID))) {
+            pendingDelta.leftPlayers.add(playerID);
+        }
+        pendingDelta.coordChanges.remove(playerID);
+        pendingDelta.scoreIncrements.remove(playerID);
     }
 
     private void addPlayerScore(String playerID) {
@@ -886,12 +1802,61 @@ public class Game implements GameRemote {
 
     private void addPlayerCoord(String playerID) {
         Coord emptyCoord = getRandEmptyCoord();
-        playerCoordMap.put(playerID, emptyCoord);
-        maze[emptyCoord.x][emptyCoord.y] = playerID;
+        setPlayerCoord(playerID, emptyCoord);
+        setCell(emptyCoord.x, emptyCoord.y, maze.addPlayer(playerID));
     }
 
     private void addPlayerAddr(PlayerAddr playerAddr) {
         playerAddrMap.put(playerAddr.playerID, playerAddr);
+        pendingDelta.joinedPlayers.add(new GameStateDelta.PlayerJoin(playerAddr, maze.handleOf(playerAddr.playerID)));
+    }
+
+    // every change to the maze and coords on the primary goes through these
+    // so that it is recorded in the delta for the backup
+    // callers must hold the write lock, or the tile of the cell
+    private void setCell(int x, int y, int value) {
+        deltaLock.lock();
+        try {
+            maze.set(x, y, value);
+            pendingDelta.cellChanges.add(new GameStateDelta.CellChange(maze.index(x, y), value));
+        } finally {
+            deltaLock.unlock();
+        }
+    }
+
+    private void setPlayerCoord(String playerID, Coord coord) {
+        deltaLock.lock();
+        try {
+            playerCoordMap.put(playerID, coord);
+            pendingDelta.coordChanges.put(playerID, coord);
+        } finally {
+            deltaLock.unlock();
+        }
+    }
+
+    // assigns the next version to the changes recorded so far
+    // @return: the sealed delta, or null if nothing has changed
+    private GameStateDelta sealPendingDelta() {
+        deltaLock.lock();
+        try {
+            if (pendingDelta.isEmpty()) {
+                return null;
+            }
+            GameStateDelta delta = pendingDelta;
+            pendingDelta = new GameStateDelta();
+            delta.baseVersion = stateVersion;
+            delta.version = stateVersion + 1;
+            stateVersion = delta.version;
+            if (stateBroadcaster != null) {
+                stateBroadcaster.publish(delta);
+            }
+            if (moveLog != null) {
+                moveLog.append(delta);
+            }
+            return delta;
+        } finally {
+            deltaLock.unlock();
+        }
     }
 
     private GameState prepareGameState() {
@@ -900,28 +1865,93 @@ public class Game implements GameRemote {
         gameState.maze = maze;
         gameState.playerScores = playerScores;
         gameState.playerAddrMap = playerAddrMap;
+        gameState.standbyPlayerIDs = standbyPlayerIDs;
+        gameState.version = stateVersion;
+        return gameState;
+    }
+
+    // consistent copy of the whole gamestate for the replication pipeline
+    // taken under the write lock, which keeps the moves out,
+    // so that it can be serialized after the lock is released
+    GameState prepareBackupSnapshot() {
+        gameStateLock.writeLock().lock();
+        try {
+            return copyGameState(prepareReplicaState());
+        } finally {
+            gameStateLock.writeLock().unlock();
+        }
+    }
+
+    // same for a normal player that has fallen behind the StateBroadcaster
+    GameState prepareBroadcastSnapshot(StateBroadcaster.Subscriber subscriber) {
+        gameStateLock.writeLock().lock();
+        try {
+            GameState gameState = copyGameState(prepareReplicaState());
+            stateBroadcaster.snapshotTaken(subscriber, gameState.version);
+            return gameState;
+        } finally {
+            gameStateLock.writeLock().unlock();
+        }
+    }
+
+    // must hold the write lock, or the read lock and deltaLock
+    private GameState copyGameState(GameState liveState) {
+        GameState gameState = new GameState();
+        gameState.playerCoordMap = new Hashtable<>(liveState.playerCoordMap);
+        gameState.maze = liveState.maze.copy();
+        gameState.playerScores = new Hashtable<>(liveState.playerScores);
+        gameState.playerAddrMap = new Hashtable<>(liveState.playerAddrMap);
+        gameState.standbyPlayerIDs = new ArrayList<>(liveState.standbyPlayerIDs);
+        gameState.version = liveState.version;
         return gameState;
     }
 
+    // full gamestate for a player that is going to replicate it
+    // any recorded delta is folded into the new version, as the receiver gets everything anyway
+    private GameState prepareReplicaState() {
+        sealPendingDelta();
+        return prepareGameState();
+    }
+
+    // @return: a uniformly random empty cell, or null if there is none
     private Coord getRandEmptyCoord() {
-        Coord coord;
-        do {
-            coord = new Coord(rand.nextInt(N), rand.nextInt(N));
-        } while (!maze[coord.x][coord.y].equals(EMPTY));
-        return coord;
+        int index = maze.randomEmptyIndex(ThreadLocalRandom.current());
+        if (index < 0) {
+            return null;
+        }
+        return new Coord(index / N, index % N);
     }
 
+    // must hold the read or the write lock, but none of the tiles
     private void generateRandTreasure() {
-        Coord emptyCoord = getRandEmptyCoord();
-        maze[emptyCoord.x][emptyCoord.y] = TREASURE;
-        LOGGER.fine("generate treasure at " + emptyCoord.x + " : " + emptyCoord.y);
+        while (true) {
+            Coord emptyCoord = getRandEmptyCoord();
+            if (emptyCoord == null) {
+                LOGGER.warning("no empty cell left for a treasure");
+                return;
+            }
+            int index = maze.index(emptyCoord.x, emptyCoord.y);
+            tileLocks.lock(index);
+            try {
+                // a concurrent move may have taken the cell since we picked it
+                if (maze.isEmpty(emptyCoord.x, emptyCoord.y)) {
+                    setCell(emptyCoord.x, emptyCoord.y, MazeGrid.TREASURE);
+                    LOGGER.fine("generate treasure at " + emptyCoord.x + " : " + emptyCoord.y);
+                    return;
+                }
+            } finally {
+                tileLocks.unlock(index);
+            }
+        }
     }
 
     private void incrPlayerScore(String playerID) {
-        if (!playerScores.containsKey(playerID)) {
-            playerScores.put(playerID, 1);
-        } else {
-            playerScores.put(playerID, playerScores.get(playerID) + 1);
+        deltaLock.lock();
+        try {
+            playerScores.merge(playerID, 1, Integer::sum);
+            pendingDelta.scoreIncrements.merge(playerID, 1, Integer::sum);
+        } finally {
+            deltaLock.unlock();
         }
     }
 
@@ -932,11 +1962,40 @@ public class Game implements GameRemote {
 
 }
 
-class Coord implements Serializable{
+class Coord implements Externalizable{
     public int x;
     public int y;
     public Coord(int x, int y) {
         this.x = x;
         this.y = y;
     }
+
+    // for Externalizable only
+    public Coord() {}
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writeTo(writer);
+        writer.finish();
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(new WireCodec.Reader(in));
+    }
+
+    void writeTo(WireCodec.Writer writer) throws IOException {
+        writer.varInt(x);
+        writer.varInt(y);
+    }
+
+    void readFrom(WireCodec.Reader reader) throws IOException {
+        x = reader.varInt();
+        y = reader.varInt();
+    }
+
+    static Coord read(WireCodec.Reader reader) throws IOException {
+        Coord coord = new Coord();
+        coord.readFrom(reader);
+        return coord;
+    }
 }
\ No newline at end of file
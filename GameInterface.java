@@ -3,7 +3,9 @@
  */
 
 import java.awt.*;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -18,9 +20,12 @@ public class GameInterface extends JFrame {
      * @param args
      */
 
-    private JPanel center;
+    private BoardPanel board;
+    private JScrollPane boardScroll;
+    private final DefaultListModel<String> scores = new DefaultListModel<>();
     private JLabel roleLabel;
     private InterfaceData data;
+    private final String playerID;
     private final Logger LOGGER = Logger.getLogger("GameInterface");
 
     public static void main(String[] args) {
@@ -66,22 +71,26 @@ public class GameInterface extends JFrame {
 
         super("PlayerID: " + playerID); // set title
         LOGGER.info("init Game Interface");
+        this.playerID = playerID;
         setDefaultCloseOperation(EXIT_ON_CLOSE); // otherwise window will not close
         setLayout(new BorderLayout());
     }
 
+    // the components are built once, an update only changes what they show
+    // the window is packed again only when the board changes size
     public void updateInterface(InterfaceData data) {
         this.data = data;
-        drawCenter();
-        pack();
-        revalidate();
-        setVisible(true);
+        boolean resized = drawCenter();
+        if (resized) {
+            pack();
+            setVisible(true);
+        }
     }
 
-    private void drawCenter() {
+    // @return: true if the board has changed size
+    private boolean drawCenter() {
         int role = data.role;
         String[][] maze = data.maze;
-        int dim = maze.length;
         Map<String, Integer> playerScores = data.playerScores;
 
         String roleStr = "Normal";
@@ -97,44 +106,41 @@ public class GameInterface extends JFrame {
             roleLabel = new JLabel(roleStr);
             roleLabel.setBorder(new EmptyBorder(10, 10, 10, 10));
             add(roleLabel, BorderLayout.NORTH);
-        } else {
+        } else if (!roleLabel.getText().equals(roleStr)) {
             LOGGER.info("[drawCenter] change role to " + roleStr);
             roleLabel.setText(roleStr);
         }
 
-        /* add center panel with flowlayout */
-        if (center == null) {
-            center = new JPanel();
-            center.setLayout(new FlowLayout());
-            center.setBorder(new EmptyBorder(10, 10, 10, 10));
-            add(center, BorderLayout.CENTER);
-        } else {
-            center.removeAll();
+        /* the board, scrolled when it does not fit */
+        if (board == null) {
+            board = new BoardPanel(playerID);
+            boardScroll = new JScrollPane(board);
+            boardScroll.setBorder(new EmptyBorder(10, 10, 10, 10));
+            add(boardScroll, BorderLayout.CENTER);
+
+            JList<String> scoreList = new JList<>(scores);
+            scoreList.setFocusable(false);
+            scoreList.setBorder(new EmptyBorder(10, 10, 10, 10));
+            add(scoreList, BorderLayout.EAST);
         }
-
-		/* add centerleft with gridlayout */
-        JPanel centerleft = new JPanel();
-        centerleft.setBorder(BorderFactory.createLineBorder(Color.black));
-        centerleft.setLayout(new GridLayout(dim, dim));
-        center.add(centerleft);
-
-		/* add button with a action listener */
-        for (int x = 0; x < dim; x++) {
-            for (int y = 0; y < dim; y++) {
-                JLabel block = new JLabel(maze[x][y]);
-                block.setBorder(BorderFactory.createLineBorder(Color.black));
-                centerleft.add(block);
+        boolean resized = board.setMaze(maze);
+
+        /* the scoreboard, highest score first, rows are only replaced when they change */
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(playerScores.entrySet());
+        entries.sort((a, b) -> a.getValue().equals(b.getValue())
+                ? a.getKey().compareTo(b.getKey()) : b.getValue() - a.getValue());
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry<String, Integer> entry = entries.get(i);
+            String row = entry.getKey() + ": " + entry.getValue();
+            if (i >= scores.size()) {
+                scores.addElement(row);
+            } else if (!scores.get(i).equals(row)) {
+                scores.set(i, row);
             }
         }
-		/* add centerright with gridlayout */
-        JPanel centerright = new JPanel();
-        centerright.setLayout(new GridLayout(playerScores.size(), 2));
-        centerright.setBorder(new EmptyBorder(10, 10, 10, 10));
-        center.add(centerright);
-
-        for (Map.Entry<String, Integer> entry : playerScores.entrySet()) {
-            JLabel block = new JLabel(entry.getKey() + ": " + entry.getValue());
-            centerright.add(block);
+        if (scores.size() > entries.size()) {
+            scores.removeRange(entries.size(), scores.size() - 1);
         }
+        return resized;
     }
-}
\ No newline at end of file
+}
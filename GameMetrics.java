@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    GameMetrics holds the instrumentation of one player: a latency histogram for every GameRemote method,
+    for the backup updates and the heartbeat sweeps, the counts of backup updates,
+    and the gauges of GameMetricsMBean, which read the player's state when asked.
+    The lock timing of gameStateLock is registered here too, see TimedReadWriteLock.
+    Everything recorded on the move path is a histogram or counter update, nothing is allocated.
+ */
+public class GameMetrics implements GameMetricsMBean {
+	private final Game game;
+	final Metrics metrics = new Metrics();
+
+	// remote methods, whichever transport they come in through
+	// applyPlayerMove calls are in applyPlayerMoves as well
+	final LatencyHistogram addOtherPlayer = metrics.latency("rmi.addOtherPlayer");
+	final LatencyHistogram applyPlayerMove = metrics.latency("rmi.applyPlayerMove");
+	final LatencyHistogram applyPlayerMoves = metrics.latency("rmi.applyPlayerMoves");
+	final LatencyHistogram applyGameStateDelta = metrics.latency("rmi.applyGameStateDelta");
+	final LatencyHistogram updateGameState = metrics.latency("rmi.updateGameState");
+	final LatencyHistogram getPrimaryServer = metrics.latency("rmi.getPrimaryServer");
+	final LatencyHistogram promoteSelfToBackup = metrics.latency("rmi.promoteSelfToBackup");
+	final LatencyHistogram ping = metrics.latency("rmi.ping");
+
+	// one delta or full state sent to the backup by the replication pipeline, until the backup answers
+	final LatencyHistogram backupUpdate = metrics.latency("replication.updateBackup");
+	// how long a move waits for the backup before it is answered, as the replication policy asks
+	final LatencyHistogram backupAwait = metrics.latency("replication.await");
+	final AtomicLong backupUpdates = new AtomicLong();
+	final AtomicLong backupUpdateFailures = new AtomicLong();
+
+	// one round of pings, without the sleep in between
+	final LatencyHistogram primarySweep = metrics.latency("heartbeat.primarySweep");
+	final LatencyHistogram backupSweep = metrics.latency("heartbeat.backupSweep");
+	// peers the failure detector began to suspect, and declared dead
+	final AtomicLong suspicions = new AtomicLong();
+	final AtomicLong deaths = new AtomicLong();
+	// pings of other players sent by the helpers, and left out as the player had just called us
+	final AtomicLong pingsSent = new AtomicLong();
+	final AtomicLong pingsSkipped = new AtomicLong();
+
+	public GameMetrics(Game game) {
+		this.game = game;
+		metrics.add("Game", null, this);
+	}
+
+	public void publish(String playerID) {
+		metrics.publish("player=" + playerID);
+	}
+
+	public void close() {
+		metrics.close();
+	}
+
+	public String getRole() {
+		switch (game.gameRole) {
+			case Game.PRIMARY:
+				return "primary";
+			case Game.BACKUP:
+				return "backup";
+			default:
+				return game.standbyPlayerIDs.contains(game.myPlayerAddr.playerID) ? "standby" : "normal";
+		}
+	}
+
+	public int getPlayerCount() {
+		return game.playerAddrMap.size();
+	}
+
+	public int getTreasureCount() {
+		MazeGrid maze = game.maze;
+		return maze == null ? 0 : maze.treasureCount();
+	}
+
+	public double getBoardOccupancy() {
+		MazeGrid maze = game.maze;
+		if (maze == null) {
+			return 0;
+		}
+		int cells = maze.N * maze.N;
+		return (double) (cells - maze.emptyCount()) / cells;
+	}
+
+	public long getStateVersion() {
+		return game.stateVersion;
+	}
+
+	public int getStandbyCount() {
+		return game.standbyPlayerIDs.size();
+	}
+
+	public long getReplicationLag() {
+		ReplicationPipeline pipeline = game.replicationPipeline;
+		return game.gameRole == Game.PRIMARY && pipeline != null ? pipeline.getLag() : 0;
+	}
+
+	public long getBackupUpdates() {
+		return backupUpdates.get();
+	}
+
+	public long getBackupUpdateFailures() {
+		return backupUpdateFailures.get();
+	}
+
+	public long getSuspicions() {
+		return suspicions.get();
+	}
+
+	public long getDeaths() {
+		return deaths.get();
+	}
+
+	public long getPingsSent() {
+		return pingsSent.get();
+	}
+
+	public long getPingsSkipped() {
+		return pingsSkipped.get();
+	}
+}
@@ -0,0 +1,24 @@
+/*
+    What a player shows over JMX as game:type=Game,player=<playerID>,
+    next to the latencies of its remote methods, locks, replication and heartbeats.
+ */
+public interface GameMetricsMBean {
+    String getRole();
+    int getPlayerCount();
+    int getTreasureCount();
+    // share of the cells taken by players and treasures, 0 to 1
+    double getBoardOccupancy();
+    long getStateVersion();
+    // warm standbys behind the backup, as far as this player knows
+    int getStandbyCount();
+    // changes queued for the backup that it has not acked yet, 0 if not the primary
+    long getReplicationLag();
+    long getBackupUpdates();
+    long getBackupUpdateFailures();
+    // peers the failure detector has suspected, and declared dead, by the helpers of this player
+    long getSuspicions();
+    long getDeaths();
+    // pings of other players by the helpers, and those left out as the player had called us just before
+    long getPingsSent();
+    long getPingsSkipped();
+}
@@ -8,6 +8,11 @@ public interface GameRemote extends Remote {
     // for primary server
     GameState addOtherPlayer(PlayerAddr playerAddr) throws RemoteException;
     GameState applyPlayerMove(String playerID, String move) throws RemoteException;
+    MoveBatchResult applyPlayerMoves(String playerID, String[] moves) throws RemoteException;
+
+    // for backup server
+    // @return: false if the delta does not follow the local version, and a full GameState is needed
+    boolean applyGameStateDelta(GameStateDelta delta) throws RemoteException;
 
     // for all players
     void updateGameState(GameState gameState) throws RemoteException;
@@ -1,18 +1,82 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Created by yichao.wang on 18/9/16.
  */
-public class GameState implements java.io.Serializable {
+public class GameState implements java.io.Externalizable {
     public Map<String, Coord> playerCoordMap;
-    public String[][] maze;
+    public MazeGrid maze;
     public Map<String, Integer> playerScores;
     public Map<String, PlayerAddr> playerAddrMap;
+    // version of the primary's state this snapshot was taken at
+    public long version;
+    // warm standbys after the backup, in the order they take its place
+    public List<String> standbyPlayerIDs;
     boolean isBecomeBackup;
     
     boolean shouldChangePrimary;
     String primaryPlayerID;
     boolean shouldChangeBackup;
     String backupPlayerID;
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
+    // write/read are also used by the NIO transport (MoveFrame), which sends no class descriptors
+    void write(DataOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        // addresses first, so that every playerID after them is a table reference
+        writer.playerAddrs(playerAddrMap);
+        writer.bool(maze != null);
+        if (maze != null) {
+            maze.writeTo(writer);
+        }
+        writer.coords(playerCoordMap);
+        writer.scores(playerScores);
+        writer.varLong(version);
+        writer.varInt(standbyPlayerIDs == null ? 0 : standbyPlayerIDs.size());
+        if (standbyPlayerIDs != null) {
+            for (String playerID : standbyPlayerIDs) {
+                writer.string(playerID);
+            }
+        }
+        writer.bool(isBecomeBackup);
+        writer.bool(shouldChangePrimary);
+        writer.string(primaryPlayerID);
+        writer.bool(shouldChangeBackup);
+        writer.string(backupPlayerID);
+        writer.finish();
+    }
+
+    void read(DataInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        playerAddrMap = reader.playerAddrs();
+        maze = reader.bool() ? MazeGrid.read(reader) : null;
+        playerCoordMap = reader.coords();
+        playerScores = reader.scores();
+        version = reader.varLong();
+        int size = reader.varInt();
+        standbyPlayerIDs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            standbyPlayerIDs.add(reader.string());
+        }
+        isBecomeBackup = reader.bool();
+        shouldChangePrimary = reader.bool();
+        primaryPlayerID = reader.string();
+        shouldChangeBackup = reader.bool();
+        backupPlayerID = reader.string();
+    }
 }
@@ -0,0 +1,222 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes made to the game state by the primary since the last version it replicated.
+ * The backup applies a delta only on top of baseVersion; any other version means it
+ * has missed something and needs a full GameState instead.
+ */
+public class GameStateDelta implements java.io.Externalizable {
+    public long baseVersion;
+    public long version;
+
+    // membership changes, applied before the board so that cells may refer to new players
+    public List<String> leftPlayers = new ArrayList<>();
+    public List<PlayerJoin> joinedPlayers = new ArrayList<>();
+
+    // board changes in the order they were made
+    public List<CellChange> cellChanges = new ArrayList<>();
+    public Map<String, Coord> coordChanges = new Hashtable<>();
+    public Map<String, Integer> scoreIncrements = new Hashtable<>();
+
+    // the primary's chain of warm standbys as of this version, null if it has not changed
+    public List<String> standbys;
+
+    // position of each cell in cellChanges, only kept once deltas are merged, see append
+    private transient Map<Integer, Integer> cellPositions;
+
+    public boolean isEmpty() {
+        return leftPlayers.isEmpty() && joinedPlayers.isEmpty() && cellChanges.isEmpty()
+                && coordChanges.isEmpty() && scoreIncrements.isEmpty() && standbys == null;
+    }
+
+    public GameStateDelta copy() {
+        GameStateDelta copy = new GameStateDelta();
+        copy.baseVersion = baseVersion;
+        copy.version = version;
+        copy.leftPlayers = new ArrayList<>(leftPlayers);
+        copy.joinedPlayers = new ArrayList<>(joinedPlayers);
+        copy.cellChanges = new ArrayList<>(cellChanges);
+        copy.coordChanges = new Hashtable<>(coordChanges);
+        copy.scoreIncrements = new Hashtable<>(scoreIncrements);
+        copy.standbys = standbys == null ? null : new ArrayList<>(standbys);
+        return copy;
+    }
+
+    // folds next, the delta right after this one, into this one, so that it goes from baseVersion to next.version
+    // only the last value of every cell is kept, as the receiver applies the cells after the membership
+    // and nothing reads a cell in between; a player that joins and leaves in the range is dropped altogether
+    public void append(GameStateDelta next) {
+        for (String playerID : next.leftPlayers) {
+            // the receiver has never seen a player that joined within the range,
+            // unless it was there before and is already in leftPlayers for leaving and joining again
+            boolean joinedHere = joinedPlayers.removeIf(join -> join.playerAddr.playerID.equals(playerID));
+            if (!joinedHere && !leftPlayers.contains(playerID)) {
+                leftPlayers.add(playerID);
+            }
+            coordChanges.remove(playerID);
+            scoreIncrements.remove(playerID);
+        }
+        joinedPlayers.addAll(next.joinedPlayers);
+
+        if (cellPositions == null) {
+            cellPositions = new HashMap<>();
+            List<CellChange> compacted = new ArrayList<>(cellChanges.size());
+            for (CellChange change : cellChanges) {
+                putCell(compacted, change);
+            }
+            cellChanges = compacted;
+        }
+        for (CellChange change : next.cellChanges) {
+            putCell(cellChanges, change);
+        }
+
+        coordChanges.putAll(next.coordChanges);
+        for (Map.Entry<String, Integer> entry : next.scoreIncrements.entrySet()) {
+            scoreIncrements.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+        if (next.standbys != null) {
+            standbys = new ArrayList<>(next.standbys);
+        }
+        version = next.version;
+    }
+
+    // applies the changes to gameState in place, which must be at baseVersion
+    public void applyTo(GameState gameState) {
+        for (String playerID : leftPlayers) {
+            gameState.playerAddrMap.remove(playerID);
+            gameState.playerCoordMap.remove(playerID);
+            gameState.playerScores.remove(playerID);
+            gameState.maze.removePlayer(playerID);
+        }
+        for (PlayerJoin join : joinedPlayers) {
+            gameState.playerAddrMap.put(join.playerAddr.playerID, join.playerAddr);
+            gameState.playerScores.put(join.playerAddr.playerID, 0);
+            gameState.maze.addPlayer(join.playerAddr.playerID, join.handle);
+        }
+        for (CellChange change : cellChanges) {
+            gameState.maze.setAt(change.index, change.value);
+        }
+        gameState.playerCoordMap.putAll(coordChanges);
+        for (Map.Entry<String, Integer> entry : scoreIncrements.entrySet()) {
+            Integer score = gameState.playerScores.get(entry.getKey());
+            gameState.playerScores.put(entry.getKey(), (score == null ? 0 : score) + entry.getValue());
+        }
+        if (standbys != null && gameState.standbyPlayerIDs != null) {
+            gameState.standbyPlayerIDs.clear();
+            gameState.standbyPlayerIDs.addAll(standbys);
+        }
+        gameState.version = version;
+    }
+
+    private void putCell(List<CellChange> changes, CellChange change) {
+        Integer position = cellPositions.get(change.index);
+        if (position == null) {
+            cellPositions.put(change.index, changes.size());
+            changes.add(change);
+        } else {
+            changes.set(position, change);
+        }
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
+    void write(DataOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.varLong(baseVersion);
+        writer.varLong(version - baseVersion);
+        writer.varInt(leftPlayers.size());
+        for (String playerID : leftPlayers) {
+            writer.string(playerID);
+        }
+        writer.varInt(joinedPlayers.size());
+        for (PlayerJoin join : joinedPlayers) {
+            join.playerAddr.writeTo(writer);
+            writer.varInt(join.handle);
+        }
+        writer.varInt(cellChanges.size());
+        for (CellChange change : cellChanges) {
+            writer.varInt(change.index);
+            writer.zigZag(change.value);
+        }
+        writer.coords(coordChanges);
+        writer.scores(scoreIncrements);
+        writer.bool(standbys != null);
+        if (standbys != null) {
+            writer.varInt(standbys.size());
+            for (String playerID : standbys) {
+                writer.string(playerID);
+            }
+        }
+        writer.finish();
+    }
+
+    void read(DataInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        baseVersion = reader.varLong();
+        version = baseVersion + reader.varLong();
+        int size = reader.varInt();
+        leftPlayers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            leftPlayers.add(reader.string());
+        }
+        size = reader.varInt();
+        joinedPlayers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            PlayerAddr playerAddr = PlayerAddr.read(reader);
+            joinedPlayers.add(new PlayerJoin(playerAddr, reader.varInt()));
+        }
+        size = reader.varInt();
+        cellChanges = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int index = reader.varInt();
+            cellChanges.add(new CellChange(index, reader.zigZag()));
+        }
+        coordChanges = reader.coords();
+        scoreIncrements = reader.scores();
+        standbys = null;
+        if (reader.bool()) {
+            size = reader.varInt();
+            standbys = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                standbys.add(reader.string());
+            }
+        }
+    }
+
+    static class PlayerJoin {
+        public PlayerAddr playerAddr;
+        // the MazeGrid handle the primary gave to the player
+        public int handle;
+
+        PlayerJoin(PlayerAddr playerAddr, int handle) {
+            this.playerAddr = playerAddr;
+            this.handle = handle;
+        }
+    }
+
+    static class CellChange {
+        // MazeGrid index and value
+        public int index;
+        public int value;
+
+        CellChange(int index, int value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+}
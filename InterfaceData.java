@@ -1,10 +1,50 @@
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Map;
 
 /**
  * Created by yichao.wang on 20/9/16.
  */
-public class InterfaceData implements java.io.Serializable {
+public class InterfaceData implements java.io.Externalizable {
     public String[][] maze;
     public Map<String, Integer> playerScores;
     public int role;
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.size(maze, maze == null ? 0 : maze.length);
+        if (maze != null) {
+            for (String[] row : maze) {
+                writer.size(row, row == null ? 0 : row.length);
+                if (row == null) {
+                    continue;
+                }
+                for (String cell : row) {
+                    writer.string(cell);
+                }
+            }
+        }
+        writer.scores(playerScores);
+        writer.zigZag(role);
+        writer.finish();
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        int rows = reader.size();
+        maze = rows < 0 ? null : new String[rows][];
+        for (int x = 0; x < rows; x++) {
+            int columns = reader.size();
+            if (columns < 0) {
+                continue;
+            }
+            maze[x] = new String[columns];
+            for (int y = 0; y < columns; y++) {
+                maze[x][y] = reader.string();
+            }
+        }
+        playerScores = reader.scores();
+        role = reader.zigZag();
+    }
 }
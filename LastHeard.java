@@ -0,0 +1,40 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    LastHeard remembers when every peer last showed it is alive by calling us: a player's moves
+    coming in at the primary, the primary's updates coming in at the backup.
+    The helpers take that as the peer's heartbeat for the sweep and ping only the peers
+    that have been silent for -Dgame.heartbeat.silenceMs (the heartbeat interval),
+    so the pings fall with the share of players that are moving.
+    Recording is a map lookup and a write; only the first call for a peer allocates.
+ */
+public class LastHeard {
+	static final long SILENCE = Long.getLong("game.heartbeat.silenceMs", FailureDetector.HEARTBEAT_INTERVAL);
+
+	private final Map<String, AtomicLong> lastHeard = new ConcurrentHashMap<>();
+
+	public void heard(String peer) {
+		AtomicLong last = lastHeard.get(peer);
+		if (last == null) {
+			last = lastHeard.computeIfAbsent(peer, p -> new AtomicLong());
+		}
+		last.set(System.currentTimeMillis());
+	}
+
+	// @return: when the peer last called us, 0 if never
+	public long get(String peer) {
+		AtomicLong last = lastHeard.get(peer);
+		return last == null ? 0 : last.get();
+	}
+
+	// @return: true if the peer has called us in the last SILENCE ms, it needs no ping
+	public static boolean isRecent(long heard, long nowMillis) {
+		return heard != 0 && nowMillis - heard < SILENCE;
+	}
+
+	public void remove(String peer) {
+		lastHeard.remove(peer);
+	}
+}
@@ -0,0 +1,13 @@
+/*
+    What a LatencyHistogram shows over JMX, all times in nanoseconds.
+ */
+public interface LatencyHistogramMBean {
+    long getCount();
+    long getMaxNanos();
+    double getMeanNanos();
+    long getP50Nanos();
+    long getP90Nanos();
+    long getP99Nanos();
+    long getP999Nanos();
+    void reset();
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/*
+    LeaseReaper expires the tracker entries of players that stopped renewing their lease.
+    Leases sit on a timing wheel of tickMillis slots, in the slot of their deadline.
+    A renewal only moves the deadline; when the reaper reaches the slot it looks at the deadline again
+    and either expires the lease or puts it in the slot of its new deadline.
+    So a renewal never touches the wheel, and a tick costs only the leases of one slot.
+    The wheel belongs to the reaper thread, new leases are handed over through a queue.
+ */
+public class LeaseReaper implements Runnable {
+    private final Tracker tracker;
+    private final long tickMillis;
+    private final List<ArrayDeque<Lease>> wheel;
+    // leases scheduled since the last tick
+    private final Queue<Lease> incoming = new ConcurrentLinkedQueue<>();
+    private final long startMillis = now();
+    private long currentTick = 0;
+
+    private final Logger LOGGER = Logger.getLogger("Game");
+    private final String logtag = "[lease reaper] ";
+
+    public LeaseReaper(Tracker tracker, long leaseMillis, long tickMillis) {
+        this.tracker = tracker;
+        this.tickMillis = Math.max(1, tickMillis);
+        // one lease length of slots, so that a lease that is never renewed is looked at only once
+        int slots = (int) (leaseMillis / this.tickMillis) + 1;
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+    }
+
+    // monotonic, leases must not jump with the wall clock
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public void schedule(Lease lease) {
+        incoming.add(lease);
+    }
+
+    public void run() {
+        LOGGER.info(logtag + "starts running, tick " + tickMillis + "ms, " + wheel.size() + " slots");
+        while (true) {
+            try {
+                long nextTickAt = startMillis + (currentTick + 1) * tickMillis;
+                long sleep = nextTickAt - now();
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warning(logtag + "interrupted, shutting down");
+                return;
+            }
+            currentTick++;
+
+            Lease lease;
+            while ((lease = incoming.poll()) != null) {
+                place(lease);
+            }
+            expireSlot(wheel.get((int) (currentTick % wheel.size())));
+        }
+    }
+
+    private void expireSlot(ArrayDeque<Lease> slot) {
+        long now = now();
+        // only the leases that are in the slot now, the ones put back may land in this slot again
+        for (int i = slot.size(); i > 0; i--) {
+            Lease lease = slot.pollFirst();
+            if (lease.isEnded()) {
+                // removed or replaced, nothing to do
+                continue;
+            }
+            if (lease.expire(now)) {
+                tracker.expire(lease);
+            } else {
+                place(lease);
+            }
+        }
+    }
+
+    private void place(Lease lease) {
+        long deadlineTick = (lease.expiresAt - startMillis + tickMillis - 1) / tickMillis;
+        // a deadline that is more than a round away comes back once more before it is due
+        wheel.get((int) (Math.max(deadlineTick, currentTick + 1) % wheel.size())).addLast(lease);
+    }
+
+    /*
+        Lease of one tracker entry. It ends once, either by expiring here
+        or by the player being removed or replaced at the tracker, and cannot be renewed after that.
+     */
+    public static class Lease {
+        final PlayerAddr playerAddr;
+        volatile long expiresAt;
+        private volatile boolean ended = false;
+
+        Lease(PlayerAddr playerAddr, long expiresAt) {
+            this.playerAddr = playerAddr;
+            this.expiresAt = expiresAt;
+        }
+
+        // no lock, for the readers of the tracker
+        boolean isLive(long now) {
+            return !ended && now < expiresAt;
+        }
+
+        boolean isEnded() {
+            return ended;
+        }
+
+        // @return: false if the lease has already run out, the player has to register again
+        synchronized boolean renew(long now, long leaseMillis) {
+            if (ended || now >= expiresAt) {
+                return false;
+            }
+            expiresAt = now + leaseMillis;
+            return true;
+        }
+
+        // @return: true if the lease has run out and is ended by this call
+        synchronized boolean expire(long now) {
+            if (ended || now < expiresAt) {
+                return false;
+            }
+            ended = true;
+            return true;
+        }
+
+        synchronized void end() {
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/*
+    MazeGrid is the N*N game board.
+    Cells are kept row by row in a flat int array: EMPTY, TREASURE, or the handle of the player standing there.
+    Handles are small positive ints handed out on join and reused after the player leaves,
+    the players table maps them back to playerIDs.
+    The String[][] view is only built for the GUI, see toStringMaze.
+    Empty cells are also kept in an index (an array of cell indices plus each cell's position in it,
+    swap-removed on update), so picking a random empty cell is O(1) however full the board is,
+    and the treasures on the board are counted as they are placed and picked up.
+    On the primary several moves update the board at once: callers keep writes to the same cell apart
+    (see TileLocks), and the free cell index, which every cell shares, has a lock of its own.
+ */
+public class MazeGrid {
+    public static final int EMPTY = 0;
+    public static final int TREASURE = -1;
+
+    // what the GUI shows for the non player cells
+    public static final String EMPTY_STR = "";
+    public static final String TREASURE_STR = "*";
+
+    public final int N;
+    private final int[] cells;
+    // handle -> playerID, null for a free handle, slot 0 is never used
+    private String[] players;
+    // playerID -> handle
+    private Map<String, Integer> handles;
+
+    // free cell index
+    // freeCells[0..freeCount) are the empty cells, freePos[i] is where cell i is in freeCells or -1
+    private int[] freeCells;
+    private int[] freePos;
+    private int freeCount;
+    // TREASURE cells, guarded by freeLock too
+    private int treasureCount;
+    private final Object freeLock = new Object();
+
+    public MazeGrid(int N) {
+        this.N = N;
+        this.cells = new int[N * N];
+        this.players = new String[8];
+        this.handles = new HashMap<>();
+        buildFreeIndex();
+    }
+
+    private MazeGrid(MazeGrid other) {
+        this.N = other.N;
+        this.cells = other.cells.clone();
+        this.players = other.players.clone();
+        this.handles = new HashMap<>(other.handles);
+        synchronized (other.freeLock) {
+            this.freeCells = other.freeCells.clone();
+            this.freePos = other.freePos.clone();
+            this.freeCount = other.freeCount;
+            this.treasureCount = other.treasureCount;
+        }
+    }
+
+    public MazeGrid copy() {
+        return new MazeGrid(this);
+    }
+
+    public int get(int x, int y) {
+        return cells[x * N + y];
+    }
+
+    public void set(int x, int y, int value) {
+        setAt(x * N + y, value);
+    }
+
+    public int getAt(int index) {
+        return cells[index];
+    }
+
+    public void setAt(int index, int value) {
+        int old = cells[index];
+        cells[index] = value;
+        boolean emptyChanged = (old == EMPTY) != (value == EMPTY);
+        boolean treasureChanged = (old == TREASURE) != (value == TREASURE);
+        if (emptyChanged || treasureChanged) {
+            synchronized (freeLock) {
+                if (emptyChanged) {
+                    if (value == EMPTY) {
+                        addFree(index);
+                    } else {
+                        removeFree(index);
+                    }
+                }
+                if (treasureChanged) {
+                    treasureCount += value == TREASURE ? 1 : -1;
+                }
+            }
+        }
+    }
+
+    public int index(int x, int y) {
+        return x * N + y;
+    }
+
+    public boolean isEmpty(int x, int y) {
+        return cells[x * N + y] == EMPTY;
+    }
+
+    public boolean isTreasure(int x, int y) {
+        return cells[x * N + y] == TREASURE;
+    }
+
+    /******* free cell index *******/
+
+    public int emptyCount() {
+        synchronized (freeLock) {
+            return freeCount;
+        }
+    }
+
+    public int treasureCount() {
+        synchronized (freeLock) {
+            return treasureCount;
+        }
+    }
+
+    // @return: index of an empty cell chosen uniformly at random, or -1 if the board is full
+    // with concurrent writers the cell may be taken by the time the caller has locked it
+    public int randomEmptyIndex(Random rand) {
+        synchronized (freeLock) {
+            if (freeCount == 0) {
+                return -1;
+            }
+            return freeCells[rand.nextInt(freeCount)];
+        }
+    }
+
+    private void addFree(int index) {
+        freePos[index] = freeCount;
+        freeCells[freeCount++] = index;
+    }
+
+    // swap the last free cell into the removed one's slot
+    private void removeFree(int index) {
+        int pos = freePos[index];
+        int last = freeCells[--freeCount];
+        freeCells[pos] = last;
+        freePos[last] = pos;
+        freePos[index] = -1;
+    }
+
+    private void buildFreeIndex() {
+        freeCells = new int[cells.length];
+        freePos = new int[cells.length];
+        freeCount = 0;
+        for (int index = 0; index < cells.length; index++) {
+            freePos[index] = -1;
+            if (cells[index] == EMPTY) {
+                addFree(index);
+            }
+        }
+    }
+
+    /******* player handles *******/
+
+    // @return: handle of playerID, or EMPTY if the player is not on the board
+    public int handleOf(String playerID) {
+        Integer handle = handles.get(playerID);
+        return handle == null ? EMPTY : handle;
+    }
+
+    public String playerOf(int handle) {
+        return handle > 0 && handle < players.length ? players[handle] : null;
+    }
+
+    // gives playerID the lowest free handle
+    public int addPlayer(String playerID) {
+        int handle = 1;
+        while (handle < players.length && players[handle] != null) {
+            handle++;
+        }
+        addPlayer(playerID, handle);
+        return handle;
+    }
+
+    // used by the backup to take over the handle the primary has chosen
+    public void addPlayer(String playerID, int handle) {
+        if (handle >= players.length) {
+            players = Arrays.copyOf(players, Math.max(handle + 1, players.length * 2));
+        }
+        players[handle] = playerID;
+        handles.put(playerID, handle);
+    }
+
+    public void removePlayer(String playerID) {
+        Integer handle = handles.remove(playerID);
+        if (handle != null) {
+            players[handle] = null;
+        }
+    }
+
+    /******* GUI view *******/
+
+    public String[][] toStringMaze() {
+        String[][] maze = new String[N][N];
+        for (int x = 0; x < N; x++) {
+            for (int y = 0; y < N; y++) {
+                maze[x][y] = cellString(cells[x * N + y]);
+            }
+        }
+        return maze;
+    }
+
+    public String cellString(int value) {
+        if (value == EMPTY) {
+            return EMPTY_STR;
+        }
+        if (value == TREASURE) {
+            return TREASURE_STR;
+        }
+        return players[value];
+    }
+
+    /******* wire format *******/
+
+    // the handle table, then the cells as (value, run length) pairs
+    // a mostly empty board costs a few bytes per occupied cell
+    // players may be replaced by a join while a live grid is written, so the length written
+    // and the handles that follow come from the same array, and the cells from one copy
+    void writeTo(WireCodec.Writer writer) throws IOException {
+        String[] players = this.players;
+        int[] cells = this.cells.clone();
+        writer.varInt(N);
+        writer.varInt(players.length);
+        for (int handle = 1; handle < players.length; handle++) {
+            writer.string(players[handle]);
+        }
+        int index = 0;
+        while (index < cells.length) {
+            int value = cells[index];
+            int run = 1;
+            while (index + run < cells.length && cells[index + run] == value) {
+                run++;
+            }
+            writer.zigZag(value);
+            writer.varInt(run);
+            index += run;
+        }
+    }
+
+    // index and handle lookup are rebuilt rather than sent
+    static MazeGrid read(WireCodec.Reader reader) throws IOException {
+        MazeGrid grid = new MazeGrid(reader.varInt());
+        grid.players = new String[reader.varInt()];
+        for (int handle = 1; handle < grid.players.length; handle++) {
+            String playerID = reader.string();
+            if (playerID != null) {
+                grid.addPlayer(playerID, handle);
+            }
+        }
+        int index = 0;
+        while (index < grid.cells.length) {
+            int value = reader.zigZag();
+            int run = reader.varInt();
+            if (run <= 0 || index + run > grid.cells.length) {
+                throw new IOException("malformed maze");
+            }
+            for (int end = index + run; index < end; index++) {
+                grid.setAt(index, value);
+            }
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,86 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+    Metrics collects the MBeans of one component (a player or the tracker) and
+    publishes them on the platform MBeanServer, where jconsole or any JMX client finds them
+    under the "game" domain, e.g. game:type=Latency,player=p0,name=rmi.applyPlayerMoves.
+    The beans record from the moment they are created, publishing only makes them visible.
+    -Dgame.jmx=off publishes nothing and leaves out the lock timing.
+ */
+public class Metrics {
+	static final boolean ENABLED = !"off".equals(System.getProperty("game.jmx"));
+	private static final String DOMAIN = "game";
+
+	private final List<Bean> beans = new ArrayList<>();
+	private final List<ObjectName> published = new ArrayList<>();
+
+	private final Logger LOGGER = Logger.getLogger("Game");
+	private final String logtag = "[metrics] ";
+
+	// @return: a new histogram, published as game:type=Latency,<scope>,name=<name>
+	public LatencyHistogram latency(String name) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		add("Latency", name, histogram);
+		return histogram;
+	}
+
+	// name may be null for the one bean of a type in the component
+	public synchronized void add(String type, String name, Object mbean) {
+		beans.add(new Bean(type, name, mbean));
+	}
+
+	// @param scope: key=value that tells the component apart, e.g. player=p0
+	// a bean left behind under the same name, e.g. by an earlier player with our ID, is replaced
+	public synchronized void publish(String scope) {
+		if (!ENABLED) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Bean bean : beans) {
+			try {
+				ObjectName objectName = new ObjectName(DOMAIN + ":type=" + bean.type + "," + scope
+						+ (bean.name == null ? "" : ",name=" + bean.name));
+				try {
+					server.registerMBean(bean.mbean, objectName);
+				} catch (InstanceAlreadyExistsException e) {
+					server.unregisterMBean(objectName);
+					server.registerMBean(bean.mbean, objectName);
+				}
+				published.add(objectName);
+			} catch (Exception e) {
+				// the game goes on without this one
+				LOGGER.warning(logtag + "fail to publish " + bean.type + " " + bean.name + " of " + scope + ": " + e);
+			}
+		}
+	}
+
+	public synchronized void close() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName objectName : published) {
+			try {
+				server.unregisterMBean(objectName);
+			} catch (Exception e) {
+				// unregistered already
+			}
+		}
+		published.clear();
+	}
+
+	private static class Bean {
+		final String type;
+		final String name;
+		final Object mbean;
+
+		Bean(String type, String name, Object mbean) {
+			this.type = type;
+			this.name = name;
+			this.mbean = mbean;
+		}
+	}
+}
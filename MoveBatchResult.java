@@ -0,0 +1,42 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Reply to GameRemote.applyPlayerMoves: the state after the whole batch,
+ * and for every move in the batch whether the primary has accepted it.
+ */
+public class MoveBatchResult implements java.io.Externalizable {
+    public GameState gameState;
+    public boolean[] accepted;
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
+    void write(DataOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.varInt(accepted.length);
+        for (boolean moveAccepted : accepted) {
+            writer.bool(moveAccepted);
+        }
+        writer.finish();
+        gameState.write(out);
+    }
+
+    void read(DataInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        accepted = new boolean[reader.varInt()];
+        for (int i = 0; i < accepted.length; i++) {
+            accepted[i] = reader.bool();
+        }
+        gameState = new GameState();
+        gameState.read(in);
+    }
+}
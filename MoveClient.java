@@ -0,0 +1,172 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/*
+    MoveClient is a GameRemote that sends the hot calls (moves, gamestate and delta updates, pings)
+    over persistent connections to the player's MoveServer, and everything else
+    (joining, promotion, asking for the primary) over RMI as before.
+    Calls are one at a time per connection. A failed call closes the connection and throws
+    a RemoteException like a dead RMI stub would; the next call connects again.
+    Pings have a connection of their own, so that they are never queued behind a slow move,
+    and only they and the updates time out (-Dgame.transport.timeoutMs): a move may be slow
+    because the primary waits for its backup, and a move that timed out would be sent again
+    and applied twice, so like an RMI call it waits for as long as the connection is up.
+ */
+public class MoveClient implements GameRemote {
+    private static final int TIMEOUT = Integer.getInteger("game.transport.timeoutMs", 2000);
+
+    final PlayerAddr playerAddr;
+    private final StubCache stubCache;
+
+    private final Connection calls = new Connection();
+    private final Connection pings = new Connection();
+
+    public MoveClient(PlayerAddr playerAddr, StubCache stubCache) {
+        this.playerAddr = playerAddr;
+        this.stubCache = stubCache;
+    }
+
+    /******* over the NIO transport *******/
+
+    public GameState applyPlayerMove(String playerID, String move) throws RemoteException {
+        return applyPlayerMoves(playerID, new String[]{move}).gameState;
+    }
+
+    public MoveBatchResult applyPlayerMoves(String playerID, String[] moves) throws RemoteException {
+        MoveFrame reply = calls.call(MoveFrame.MOVES, out -> MoveFrame.writeMoves(out, playerID, moves), MoveFrame.RESULT, 0);
+        try {
+            MoveBatchResult result = new MoveBatchResult();
+            result.read(reply.payload);
+            return result;
+        } catch (IOException e) {
+            throw new RemoteException("malformed reply from " + playerAddr.playerID, e);
+        }
+    }
+
+    public void updateGameState(GameState gameState) throws RemoteException {
+        readAck(calls.call(MoveFrame.STATE, gameState::write, MoveFrame.ACK, TIMEOUT));
+    }
+
+    public boolean applyGameStateDelta(GameStateDelta delta) throws RemoteException {
+        return readAck(calls.call(MoveFrame.DELTA, delta::write, MoveFrame.ACK, TIMEOUT));
+    }
+
+    public void ping() throws RemoteException {
+        readAck(pings.call(MoveFrame.PING, null, MoveFrame.ACK, TIMEOUT));
+    }
+
+    /******* over RMI *******/
+
+    public GameState addOtherPlayer(PlayerAddr playerAddr) throws RemoteException {
+        return rmiStub().addOtherPlayer(playerAddr);
+    }
+
+    public PlayerAddr getPrimaryServer() throws RemoteException {
+        return rmiStub().getPrimaryServer();
+    }
+
+    public void promoteSelfToBackup() throws RemoteException {
+        rmiStub().promoteSelfToBackup();
+    }
+
+    private GameRemote rmiStub() throws RemoteException {
+        try {
+            return stubCache.get(playerAddr);
+        } catch (NotBoundException e) {
+            throw new RemoteException(playerAddr.playerID + " is not bound", e);
+        }
+    }
+
+    /******* connection *******/
+
+    public void close() {
+        calls.close();
+        pings.close();
+    }
+
+    private class Connection {
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private long nextRequestId = 1;
+
+        synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+
+        // @param timeout: how long to wait for the reply in ms, 0 for as long as the connection is up
+        synchronized MoveFrame call(byte type, MoveFrame.Payload payload, byte replyType, int timeout) throws RemoteException {
+            long requestId = nextRequestId++;
+            MoveFrame reply;
+            try {
+                if (socket == null) {
+                    connect();
+                }
+                socket.setSoTimeout(timeout);
+                out.write(MoveFrame.encode(type, requestId, payload));
+                out.flush();
+                int length = in.readInt();
+                if (length <= 0 || length > MoveFrame.MAX_LENGTH) {
+                    throw new IOException("bad frame length: " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                reply = MoveFrame.decode(body);
+                if (reply.requestId != requestId) {
+                    throw new IOException("reply to request " + reply.requestId + ", expected " + requestId);
+                }
+            } catch (IOException e) {
+                close();
+                throw new RemoteException("move transport to " + playerAddr.playerID + " fails", e);
+            }
+
+            if (reply.type == MoveFrame.ERROR) {
+                String message;
+                try {
+                    message = new WireCodec.Reader(reply.payload).string();
+                } catch (IOException e) {
+                    message = "unreadable error";
+                }
+                throw new RemoteException(playerAddr.playerID + " fails the request: " + message);
+            }
+            if (reply.type != replyType) {
+                close();
+                throw new RemoteException("unexpected reply type " + reply.type + " from " + playerAddr.playerID);
+            }
+            return reply;
+        }
+
+        private void connect() throws IOException {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(playerAddr.ip_addr, playerAddr.movePort), TIMEOUT);
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.socket = socket;
+        }
+    }
+
+    private boolean readAck(MoveFrame reply) throws RemoteException {
+        try {
+            return new WireCodec.Reader(reply.payload).bool();
+        } catch (IOException e) {
+            throw new RemoteException("malformed reply from " + playerAddr.playerID, e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+    MoveFrame is the framing of the NIO transport between MoveClient and MoveServer.
+    Every request and reply is one frame:
+        int   length of the rest of the frame
+        byte  type
+        long  request id, the reply carries the id of its request
+        ...   payload, in the same WireCodec blocks as the Externalizable classes use over RMI
+ */
+public class MoveFrame {
+    // requests, and what the server replies with
+    public static final byte MOVES = 1;      // playerID and moves -> RESULT
+    public static final byte STATE = 2;      // GameState -> ACK
+    public static final byte DELTA = 3;      // GameStateDelta -> ACK
+    public static final byte PING = 4;       // -> ACK
+
+    // replies
+    public static final byte RESULT = 10;    // MoveBatchResult
+    public static final byte ACK = 11;       // boolean
+    public static final byte ERROR = 12;     // message
+
+    // anything longer is a broken or hostile peer
+    public static final int MAX_LENGTH = 16 << 20;
+    public static final int HEADER_LENGTH = 4;
+
+    public final byte type;
+    public final long requestId;
+    // positioned at the payload
+    public final DataInputStream payload;
+
+    private MoveFrame(byte type, long requestId, DataInputStream payload) {
+        this.type = type;
+        this.requestId = requestId;
+        this.payload = payload;
+    }
+
+    public interface Payload {
+        void write(DataOutput out) throws IOException;
+    }
+
+    // @return: the whole frame, length included
+    public static byte[] encode(byte type, long requestId, Payload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(type);
+        out.writeLong(requestId);
+        if (payload != null) {
+            payload.write(out);
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - HEADER_LENGTH;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    // @param body: the frame without its length
+    public static MoveFrame decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        long requestId = in.readLong();
+        return new MoveFrame(type, requestId, in);
+    }
+
+    static void writeMoves(DataOutput out, String playerID, String[] moves) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.string(playerID);
+        writer.varInt(moves.length);
+        for (String move : moves) {
+            writer.string(move);
+        }
+        writer.finish();
+    }
+
+    static void writeAck(DataOutput out, boolean value) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.bool(value);
+        writer.finish();
+    }
+
+    static void writeError(DataOutput out, String message) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.string(message);
+        writer.finish();
+    }
+}
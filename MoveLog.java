@@ -0,0 +1,460 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/*
+    MoveLog is the optional write-ahead log of the primary, turned on with -Dgame.wal.dir=<dir>.
+    Every delta the primary seals (moves, joins and exits alike) is appended, in version order,
+    to a memory-mapped segment file in <dir>/<playerID>. A flusher thread forces the segment to disk
+    and tells the waiting callers which version is durable; whatever is appended while a force is
+    running goes out with the next one, so one force covers a whole group of moves.
+    With -Dgame.wal.fsync=false nobody waits, and the segment is forced every -Dgame.wal.flushMs.
+
+    Every -Dgame.wal.snapshotEvery versions the whole gamestate is written to a snapshot file,
+    and the segments it covers are deleted. A log always starts with a snapshot, so one directory
+    is enough to restore from; restore takes the directory that gets furthest.
+
+    On disk:
+        snapshot-<version>.snap    int length, int crc, GameState
+        segment-<first>.log        records of int length, int crc, GameStateDelta; a zero length ends the segment
+ */
+public class MoveLog implements Runnable {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // length and crc
+    private static final int RECORD_HEADER = 8;
+
+    private final Game game;
+    private final File dir;
+    private final int segmentBytes;
+    private final long snapshotEvery;
+    private final boolean fsync;
+    private final long flushMillis;
+    private final String logtag;
+    private final Logger LOGGER = Logger.getLogger("MoveLog");
+
+    // guards the segments and the scratch buffer, taken under the primary's deltaLock
+    private final Lock appendLock = new ReentrantLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+    private final Scratch scratch = new Scratch();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final CRC32 crc = new CRC32();
+    private volatile long appendedVersion;
+
+    // the flusher's, waiters wait on it for durableVersion
+    private final Object durableLock = new Object();
+    private long durableVersion;
+    private volatile boolean failed = false;
+    private volatile boolean closed = false;
+
+    private volatile long lastSnapshotVersion;
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+
+    public MoveLog(Game game, File dir, int segmentBytes, long snapshotEvery, boolean fsync, long flushMillis) {
+        this.game = game;
+        this.dir = new File(dir, game.myPlayerAddr.playerID);
+        this.segmentBytes = segmentBytes;
+        this.snapshotEvery = snapshotEvery;
+        this.fsync = fsync;
+        this.flushMillis = flushMillis;
+        this.logtag = "[move log of " + game.myPlayerAddr.playerID + "] ";
+    }
+
+    // @return: null if -Dgame.wal.dir is not set
+    public static MoveLog fromSystemProperties(Game game) {
+        File dir = logDir();
+        if (dir == null) {
+            return null;
+        }
+        return new MoveLog(game, dir,
+                Integer.getInteger("game.wal.segmentMB", 64) << 20,
+                Long.getLong("game.wal.snapshotEvery", 10000),
+                !"false".equals(System.getProperty("game.wal.fsync", "true")),
+                Long.getLong("game.wal.flushMs", 10));
+    }
+
+    static File logDir() {
+        String dir = System.getProperty("game.wal.dir");
+        return dir == null ? null : new File(dir);
+    }
+
+    // drops whatever this player logged before and starts over from a snapshot of the current gamestate
+    // the old files go only once the new snapshot is in place, so that a crash in between leaves one or the other
+    // takes the primary's write lock, so it must not be called under the deltaLock
+    public void open() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        GameState gameState = game.prepareBackupSnapshot();
+        File snapshot = writeSnapshot(gameState);
+        for (File file : listFiles(dir, "", "")) {
+            if (!file.equals(snapshot)) {
+                Files.delete(file.toPath());
+            }
+        }
+        lastSnapshotVersion = gameState.version;
+        appendedVersion = gameState.version;
+        durableVersion = gameState.version;
+        current = newSegment(gameState.version + 1, segmentBytes);
+        LOGGER.info(logtag + "opened in " + dir + " at version " + gameState.version);
+    }
+
+    // called by the primary for every sealed delta, in version order, under its deltaLock
+    public void append(GameStateDelta delta) {
+        if (failed || closed) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            scratch.reset();
+            delta.write(scratchOut);
+            int length = scratch.size();
+            crc.reset();
+            crc.update(scratch.buffer(), 0, length);
+
+            // room for the record and the zero length that ends the segment
+            if (current.writer.remaining() < RECORD_HEADER + length + 4) {
+                current = newSegment(delta.version, Math.max(segmentBytes, RECORD_HEADER + length + 4));
+            }
+            current.writer.putInt(length);
+            current.writer.putInt((int) crc.getValue());
+            current.writer.put(scratch.buffer(), 0, length);
+            appendedVersion = delta.version;
+        } catch (IOException e) {
+            // the game goes on without the log, the waiters are told that nothing is durable any more
+            LOGGER.severe(logtag + "append fails, log turned off: " + e);
+            fail();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // group commit, blocks until version has been forced to disk
+    // must not be called with the gameStateLock held
+    // @return: false if the log has failed
+    public boolean awaitDurable(long version) {
+        if (!fsync) {
+            return !failed;
+        }
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+            while (durableVersion < version && !failed && !closed) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !failed;
+        }
+    }
+
+    public void run() {
+        LOGGER.info(logtag + "flusher starts running, fsync " + fsync);
+        while (!closed && !failed) {
+            synchronized (durableLock) {
+                try {
+                    if (!fsync || appendedVersion == durableVersion) {
+                        // with fsync the waiters wake us up when they need a force
+                        durableLock.wait(flushMillis);
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.warning(logtag + "interrupted, shutting down");
+                    return;
+                }
+            }
+            if (appendedVersion == durableVersion) {
+                continue;
+            }
+            flush();
+            if (durableVersion - lastSnapshotVersion >= snapshotEvery && snapshotting.compareAndSet(false, true)) {
+                Thread snapshotter = new Thread(this::snapshot, "wal-snapshot-" + game.myPlayerAddr.playerID);
+                snapshotter.setDaemon(true);
+                snapshotter.start();
+            }
+        }
+    }
+
+    // forces everything appended so far, segments that have been rolled over included
+    // synchronized for close, which flushes once more
+    private synchronized void flush() {
+        List<Segment> dirty = new ArrayList<>();
+        long version;
+        appendLock.lock();
+        try {
+            version = appendedVersion;
+            for (Segment segment : segments) {
+                int position = segment.writer.position();
+                if (segment.forcedPosition < position) {
+                    dirty.add(segment);
+                    segment.forceTo = position;
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        for (Segment segment : dirty) {
+            // the appender only writes after forceTo, force does not care
+            segment.buffer.force(segment.forcedPosition, segment.forceTo - segment.forcedPosition);
+            segment.forcedPosition = segment.forceTo;
+        }
+        synchronized (durableLock) {
+            durableVersion = version;
+            durableLock.notifyAll();
+        }
+    }
+
+    // on its own thread, so that the group commits go on meanwhile
+    private void snapshot() {
+        try {
+            GameState gameState = game.prepareBackupSnapshot();
+            writeSnapshot(gameState);
+            lastSnapshotVersion = gameState.version;
+            prune(gameState.version);
+        } catch (IOException e) {
+            // the segments are still there, restore just replays more of them
+            LOGGER.warning(logtag + "snapshot fails: " + e);
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    // deletes the older snapshots and the segments that only hold versions up to version
+    private void prune(long version) throws IOException {
+        for (File file : listFiles(dir, SNAPSHOT_PREFIX, "")) {
+            // also the .tmp of a snapshot that failed
+            if (versionOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < version) {
+                Files.delete(file.toPath());
+            }
+        }
+        List<Segment> covered = new ArrayList<>();
+        appendLock.lock();
+        try {
+            // the next segment starting at or before version+1 means this one has nothing after version
+            while (segments.size() > 1 && segments.get(1).firstVersion <= version + 1
+                    && segments.get(0).forcedPosition == segments.get(0).writer.position()) {
+                covered.add(segments.remove(0));
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        for (Segment segment : covered) {
+            Files.delete(segment.file.toPath());
+        }
+        if (!covered.isEmpty()) {
+            LOGGER.info(logtag + "snapshot at version " + version + ", deleted " + covered.size() + " segments");
+        }
+    }
+
+    public void close() {
+        closed = true;
+        flush();
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    private void fail() {
+        failed = true;
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    // must hold appendLock, or be opening
+    private Segment newSegment(long firstVersion, int size) throws IOException {
+        File file = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, firstVersion, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, firstVersion, size);
+        segments.add(segment);
+        return segment;
+    }
+
+    // written aside and renamed, so that a crash never leaves half a snapshot under the real name
+    // @return: the snapshot file
+    private File writeSnapshot(GameState gameState) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        gameState.write(new DataOutputStream(bytes));
+        byte[] body = bytes.toByteArray();
+        CRC32 snapshotCrc = new CRC32();
+        snapshotCrc.update(body);
+
+        String name = String.format("%s%020d%s", SNAPSHOT_PREFIX, gameState.version, SNAPSHOT_SUFFIX);
+        File temp = new File(dir, name + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+            file.writeInt(body.length);
+            file.writeInt((int) snapshotCrc.getValue());
+            file.write(body);
+            file.getChannel().force(true);
+        }
+        File snapshot = new File(dir, name);
+        Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return snapshot;
+    }
+
+    /******* restore *******/
+
+    // @return: the furthest gamestate any player logged under dir, null if there is none
+    public static GameState restore(File dir) {
+        Logger logger = Logger.getLogger("MoveLog");
+        File[] playerDirs = dir.listFiles(File::isDirectory);
+        if (playerDirs == null) {
+            return null;
+        }
+        GameState best = null;
+        for (File playerDir : playerDirs) {
+            try {
+                GameState gameState = restorePlayerDir(playerDir);
+                if (gameState != null && (best == null || gameState.version > best.version)) {
+                    best = gameState;
+                }
+            } catch (IOException e) {
+                logger.warning("[restore] cannot read " + playerDir + ": " + e);
+            }
+        }
+        if (best != null) {
+            logger.info("[restore] restored version " + best.version + " from " + dir);
+        }
+        return best;
+    }
+
+    // the newest readable snapshot, then every delta after it up to the first one that is torn or missing
+    private static GameState restorePlayerDir(File playerDir) throws IOException {
+        List<File> snapshots = listFiles(playerDir, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        GameState gameState = null;
+        for (int i = snapshots.size() - 1; i >= 0 && gameState == null; i--) {
+            gameState = readSnapshot(snapshots.get(i));
+        }
+        if (gameState == null) {
+            return null;
+        }
+
+        CRC32 recordCrc = new CRC32();
+        for (File file : listFiles(playerDir, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= RECORD_HEADER) {
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining() - 4) {
+                        // end of the segment
+                        break;
+                    }
+                    int expectedCrc = buffer.getInt();
+                    byte[] body = new byte[length];
+                    buffer.get(body);
+                    recordCrc.reset();
+                    recordCrc.update(body);
+                    if ((int) recordCrc.getValue() != expectedCrc) {
+                        // torn by the crash, nothing after it was acknowledged
+                        return gameState;
+                    }
+                    GameStateDelta delta = new GameStateDelta();
+                    delta.read(new DataInputStream(new ByteArrayInputStream(body)));
+                    if (delta.version <= gameState.version) {
+                        continue;
+                    }
+                    if (delta.baseVersion != gameState.version) {
+                        return gameState;
+                    }
+                    delta.applyTo(gameState);
+                }
+            }
+        }
+        return gameState;
+    }
+
+    // @return: null if the snapshot is torn
+    private static GameState readSnapshot(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            int expectedCrc = in.readInt();
+            in.readFully(body);
+            CRC32 snapshotCrc = new CRC32();
+            snapshotCrc.update(body);
+            if ((int) snapshotCrc.getValue() != expectedCrc) {
+                return null;
+            }
+            GameState gameState = new GameState();
+            gameState.read(new DataInputStream(new ByteArrayInputStream(body)));
+            return gameState;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // @return: the files named prefix...suffix, in name order, i.e. version order
+    private static List<File> listFiles(File dir, String prefix, String suffix) {
+        File[] files = dir.listFiles((parent, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private static long versionOf(File file, String prefix, String suffix) {
+        String name = file.getName();
+        if (!name.endsWith(suffix)) {
+            return -1;
+        }
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static class Segment {
+        final File file;
+        final long firstVersion;
+        // forced by the flusher, written through writer by the appender
+        final MappedByteBuffer buffer;
+        final ByteBuffer writer;
+        // the flusher's, also read by prune
+        volatile int forcedPosition = 0;
+        int forceTo = 0;
+
+        Segment(File file, long firstVersion, int size) throws IOException {
+            this.file = file;
+            this.firstVersion = firstVersion;
+            // the mapping stays valid after the file is closed, until it is garbage collected
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            this.writer = buffer.duplicate();
+        }
+    }
+
+    // a ByteArrayOutputStream that lets us at its array, so that a record is not copied twice
+    private static class Scratch extends ByteArrayOutputStream {
+        Scratch() {
+            super(4096);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Hashtable;
+import java.util.Map;
+
+/*
+    MovePredictor lets a player that is not the primary see its own moves before the primary has answered.
+    It applies the moves to a copy of the last state the primary sent us, with the same rules
+    as Game.applyPlayerMoves, and the copy is shown right away.
+    When the primary's answer arrives it replaces the prediction, which rolls back any move
+    the primary has rejected (e.g. another player got to the cell first).
+    States the primary pushes to us (deltas, full states) become the base too, so that a player
+    who is not moving predicts from the board it is shown; whichever of the two is newer wins.
+    Treasures respawn at random on the primary, so a predicted pickup only clears the cell.
+ */
+public class MovePredictor {
+    private final String playerID;
+
+    // last state the primary has sent us, never modified
+    private GameState authoritative;
+
+    // what we predicted for the batch in flight
+    private boolean[] predictedAccepted;
+    private long predictions = 0;
+    private long mispredictions = 0;
+
+    public MovePredictor(String playerID) {
+        this.playerID = playerID;
+    }
+
+    // @return: the predicted state after moves, or null if we have nothing to predict from yet
+    public synchronized GameState predict(String[] moves) {
+        if (authoritative == null || authoritative.maze == null) {
+            return null;
+        }
+        GameState predicted = new GameState();
+        predicted.maze = authoritative.maze.copy();
+        predicted.playerCoordMap = new Hashtable<>(authoritative.playerCoordMap);
+        predicted.playerScores = new Hashtable<>(authoritative.playerScores);
+        predicted.playerAddrMap = authoritative.playerAddrMap;
+        predicted.version = authoritative.version;
+
+        predictedAccepted = new boolean[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            predictedAccepted[i] = apply(predicted, moves[i]);
+        }
+        predictions += moves.length;
+        return predicted;
+    }
+
+    // take the primary's answer to the batch in flight as the new base
+    // @return: how many of our predicted moves the primary has rejected
+    public synchronized int reconcile(MoveBatchResult result) {
+        pushed(result.gameState);
+        int rolledBack = 0;
+        if (predictedAccepted != null) {
+            for (int i = 0; i < predictedAccepted.length && i < result.accepted.length; i++) {
+                if (predictedAccepted[i] && !result.accepted[i]) {
+                    rolledBack++;
+                }
+            }
+        }
+        predictedAccepted = null;
+        mispredictions += rolledBack;
+        return rolledBack;
+    }
+
+    // a state the primary has sent us, that nobody modifies afterwards
+    public synchronized void pushed(GameState gameState) {
+        if (authoritative == null || gameState.version >= authoritative.version) {
+            authoritative = gameState;
+        }
+    }
+
+    // @return: which moves of the batch in flight we predicted the primary accepts, null if there is none
+    synchronized boolean[] getPredictedAccepted() {
+        return predictedAccepted == null ? null : predictedAccepted.clone();
+    }
+
+    public synchronized long getPredictions() {
+        return predictions;
+    }
+
+    public synchronized long getMispredictions() {
+        return mispredictions;
+    }
+
+    private boolean apply(GameState state, String move) {
+        Coord coord = state.playerCoordMap.get(playerID);
+        if (coord == null) {
+            return false;
+        }
+        Coord target = Game.moveTarget(coord, move, state.maze.N);
+        if (target == null) {
+            return false;
+        }
+        if (target.x == coord.x && target.y == coord.y) {
+            // REFRESH, before canEnter as our own cell is taken, in the order of Game.applyMoveLocked
+            return true;
+        }
+        if (!Game.canEnter(state.maze, target.x, target.y)) {
+            return false;
+        }
+        if (state.maze.isTreasure(target.x, target.y)) {
+            Integer score = state.playerScores.get(playerID);
+            state.playerScores.put(playerID, (score == null ? 0 : score) + 1);
+        }
+        int handle = state.maze.get(coord.x, coord.y);
+        state.maze.set(coord.x, coord.y, MazeGrid.EMPTY);
+        state.maze.set(target.x, target.y, handle);
+        state.playerCoordMap.put(playerID, target);
+        return true;
+    }
+}
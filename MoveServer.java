@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/*
+    MoveServer is the receiving end of the NIO transport, turned on with -Dgame.transport=nio.
+    One selector thread accepts the connections and cuts the incoming bytes into MoveFrames,
+    which are handled on a small pool of workers (-Dgame.transport.threads) as they may block,
+    e.g. applyPlayerMoves waiting for the backup. Pings never block, they are answered on the selector
+    thread, so that a pool full of slow moves does not make us look dead. Replies are queued on their connection
+    and written out by the selector thread, so a slow reader never holds up a worker.
+    Connections stay open for as long as the client keeps them.
+ */
+public class MoveServer implements Runnable {
+    private static final int WORKER_THREADS = Integer.getInteger("game.transport.threads", 4);
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final Game game;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    // connections that have replies queued since the selector last looked
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final String logtag;
+
+    private final Logger LOGGER = Logger.getLogger("MoveServer");
+
+    public MoveServer(Game game) throws IOException {
+        this.game = game;
+        this.logtag = "[move server of " + game.myPlayerAddr.playerID + "] ";
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(0));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "move-worker-" + game.myPlayerAddr.playerID);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void run() {
+        LOGGER.info(logtag + "listening on port " + getPort());
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException | ClosedSelectorException e) {
+                LOGGER.info(logtag + "selector closed, shutting down: " + e);
+                workers.shutdownNow();
+                return;
+            }
+            if (!selector.isOpen()) {
+                workers.shutdownNow();
+                return;
+            }
+
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                if (connection.key.isValid()) {
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isReadable()) {
+                            read((Connection) key.attachment());
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write((Connection) key.attachment());
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.fine(logtag + "closing connection: " + e);
+                    close(key);
+                }
+            }
+        }
+    }
+
+    // stops listening and drops every connection
+    public void close() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            LOGGER.warning(logtag + "close fails: " + e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    // hands every complete frame in the buffer to the workers
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.readBuffer) < 0) {
+            throw new IOException("closed by peer");
+        }
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.flip();
+        while (buffer.remaining() >= MoveFrame.HEADER_LENGTH) {
+            int length = buffer.getInt(buffer.position());
+            if (length <= 0 || length > MoveFrame.MAX_LENGTH) {
+                throw new IOException("bad frame length: " + length);
+            }
+            if (buffer.remaining() < MoveFrame.HEADER_LENGTH + length) {
+                if (buffer.capacity() < MoveFrame.HEADER_LENGTH + length) {
+                    // the frame does not fit, grow the buffer for the rest of it
+                    ByteBuffer larger = ByteBuffer.allocate(MoveFrame.HEADER_LENGTH + length);
+                    larger.put(buffer);
+                    connection.readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+            buffer.position(buffer.position() + MoveFrame.HEADER_LENGTH);
+            byte[] body = new byte[length];
+            buffer.get(body);
+            if (body[0] == MoveFrame.PING) {
+                handle(connection, body);
+            } else {
+                workers.execute(() -> handle(connection, body));
+            }
+        }
+        if (buffer.capacity() > READ_BUFFER_SIZE && buffer.remaining() <= READ_BUFFER_SIZE) {
+            // a large frame has gone through, give its buffer back rather than keep it for the connection's life
+            // what is left of the next frame grows it again if it needs to
+            ByteBuffer smaller = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            smaller.put(buffer);
+            connection.readBuffer = smaller;
+            return;
+        }
+        buffer.compact();
+    }
+
+    private void write(Connection connection) throws IOException {
+        ByteBuffer head;
+        while ((head = connection.writeQueue.peek()) != null) {
+            connection.channel.write(head);
+            if (head.hasRemaining()) {
+                // socket buffer is full, wait for the next OP_WRITE
+                return;
+            }
+            connection.writeQueue.poll();
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+        // a worker may have queued a reply after the loop, it has also queued the connection,
+        // so the selector puts OP_WRITE back on its next round
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    // on a worker thread, or the selector thread for a ping
+    private void handle(Connection connection, byte[] body) {
+        long requestId = 0;
+        byte[] reply;
+        try {
+            MoveFrame frame = MoveFrame.decode(body);
+            requestId = frame.requestId;
+            reply = dispatch(frame);
+        } catch (Exception e) {
+            LOGGER.warning(logtag + "request " + requestId + " fails: " + e);
+            try {
+                reply = MoveFrame.encode(MoveFrame.ERROR, requestId, out -> MoveFrame.writeError(out, e.toString()));
+            } catch (IOException ee) {
+                return;
+            }
+        }
+        connection.writeQueue.add(ByteBuffer.wrap(reply));
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    private byte[] dispatch(MoveFrame frame) throws IOException {
+        switch (frame.type) {
+            case MoveFrame.MOVES: {
+                WireCodec.Reader reader = new WireCodec.Reader(frame.payload);
+                String playerID = reader.string();
+                String[] moves = new String[reader.varInt()];
+                for (int i = 0; i < moves.length; i++) {
+                    moves[i] = reader.string();
+                }
+                MoveBatchResult result = game.applyPlayerMoves(playerID, moves);
+                return MoveFrame.encode(MoveFrame.RESULT, frame.requestId, result::write);
+            }
+            case MoveFrame.STATE: {
+                GameState gameState = new GameState();
+                gameState.read(frame.payload);
+                game.updateGameState(gameState);
+                return MoveFrame.encode(MoveFrame.ACK, frame.requestId, out -> MoveFrame.writeAck(out, true));
+            }
+            case MoveFrame.DELTA: {
+                GameStateDelta delta = new GameStateDelta();
+                delta.read(frame.payload);
+                boolean applied = game.applyGameStateDelta(delta);
+                return MoveFrame.encode(MoveFrame.ACK, frame.requestId, out -> MoveFrame.writeAck(out, applied));
+            }
+            case MoveFrame.PING:
+                game.ping();
+                return MoveFrame.encode(MoveFrame.ACK, frame.requestId, out -> MoveFrame.writeAck(out, true));
+            default:
+                throw new IOException("unknown frame type: " + frame.type);
+        }
+    }
+
+    private static class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
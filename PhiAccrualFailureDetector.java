@@ -0,0 +1,151 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    PhiAccrualFailureDetector (Hayashibara et al.) keeps the intervals between the last heartbeats of every peer
+    and, from their mean and standard deviation, how unlikely it is that the next heartbeat is still to come:
+    phi = -log10(P(interval > time since the last heartbeat)), so phi 1 means 10% likely, phi 8 one in 10^8.
+    A peer that is regularly slow, or answers late now and then, widens its own distribution
+    and is suspected later than one that always answers on time.
+    A missed ping is not evidence of its own; only the time without a heartbeat is.
+
+    -Dgame.fd.suspectPhi (3), -Dgame.fd.deadPhi (8),
+    -Dgame.fd.windowSize (100) intervals kept per peer,
+    -Dgame.fd.minStdDevMs (50) floor of the standard deviation, so that a very regular peer
+        is not dead a few milliseconds after its usual time,
+    -Dgame.fd.acceptablePauseMs (500) added to the mean, a pause of this long is taken as normal,
+        e.g. a full GC; with the defaults a peer is dead about 850 ms after its last heartbeat.
+ */
+public class PhiAccrualFailureDetector implements FailureDetector {
+	private final double suspectPhi;
+	private final double deadPhi;
+	private final int windowSize;
+	private final double minStdDev;
+	private final double acceptablePause;
+	// what a peer is expected to do before it has any history
+	private final long firstInterval;
+	private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+	public PhiAccrualFailureDetector(double suspectPhi, double deadPhi, int windowSize,
+			long minStdDevMillis, long acceptablePauseMillis, long expectedIntervalMillis) {
+		this.suspectPhi = Math.min(suspectPhi, deadPhi);
+		this.deadPhi = deadPhi;
+		this.windowSize = Math.max(2, windowSize);
+		this.minStdDev = Math.max(1, minStdDevMillis);
+		this.acceptablePause = Math.max(0, acceptablePauseMillis);
+		this.firstInterval = Math.max(1, expectedIntervalMillis);
+	}
+
+	public static PhiAccrualFailureDetector fromSystemProperties(long expectedIntervalMillis) {
+		return new PhiAccrualFailureDetector(
+				Double.parseDouble(System.getProperty("game.fd.suspectPhi", "3")),
+				Double.parseDouble(System.getProperty("game.fd.deadPhi", "8")),
+				Integer.getInteger("game.fd.windowSize", 100),
+				Long.getLong("game.fd.minStdDevMs", 50),
+				Long.getLong("game.fd.acceptablePauseMs", 500),
+				expectedIntervalMillis);
+	}
+
+	public void heartbeat(String peer, long nowMillis) {
+		History history = histories.get(peer);
+		if (history == null) {
+			histories.putIfAbsent(peer, new History(nowMillis));
+			return;
+		}
+		history.heartbeat(nowMillis);
+	}
+
+	public void missed(String peer, long nowMillis) {
+		// nothing to learn, but from now on the peer is tracked
+		history(peer, nowMillis);
+	}
+
+	// @return: phi
+	public double suspicion(String peer, long nowMillis) {
+		return history(peer, nowMillis).phi(nowMillis);
+	}
+
+	public Status status(String peer, long nowMillis) {
+		double phi = suspicion(peer, nowMillis);
+		if (phi >= deadPhi) {
+			return Status.DEAD;
+		}
+		return phi >= suspectPhi ? Status.SUSPECT : Status.ALIVE;
+	}
+
+	public void remove(String peer) {
+		histories.remove(peer);
+	}
+
+	private History history(String peer, long nowMillis) {
+		History history = histories.get(peer);
+		if (history == null) {
+			history = histories.computeIfAbsent(peer, p -> new History(nowMillis));
+		}
+		return history;
+	}
+
+	public String toString() {
+		return "phi(suspect=" + suspectPhi + ", dead=" + deadPhi + ", minStdDev=" + (long) minStdDev
+				+ "ms, pause=" + (long) acceptablePause + "ms)";
+	}
+
+	/*
+		The last windowSize intervals of one peer, in a ring, with their running sum and sum of squares.
+	 */
+	private final class History {
+		private final long[] intervals = new long[windowSize];
+		private int size = 0;
+		private int next = 0;
+		private double sum = 0;
+		private double sumOfSquares = 0;
+		private long last;
+
+		History(long nowMillis) {
+			this.last = nowMillis;
+			// start from the expected interval, give or take a quarter
+			add(firstInterval - firstInterval / 4);
+			add(firstInterval + firstInterval / 4);
+		}
+
+		synchronized void heartbeat(long nowMillis) {
+			if (nowMillis > last) {
+				add(nowMillis - last);
+				last = nowMillis;
+			}
+		}
+
+		private void add(long interval) {
+			if (size == intervals.length) {
+				long oldest = intervals[next];
+				sum -= oldest;
+				sumOfSquares -= (double) oldest * oldest;
+			} else {
+				size++;
+			}
+			intervals[next] = interval;
+			next = (next + 1) % intervals.length;
+			sum += interval;
+			sumOfSquares += (double) interval * interval;
+		}
+
+		synchronized double phi(long nowMillis) {
+			double elapsed = nowMillis - last;
+			double mean = sum / size;
+			double variance = Math.max(0, sumOfSquares / size - mean * mean);
+			double stdDev = Math.max(Math.sqrt(variance), minStdDev);
+			return PhiAccrualFailureDetector.phi(elapsed, mean + acceptablePause, stdDev);
+		}
+	}
+
+	// -log10 of the upper tail of the normal distribution at elapsed,
+	// with the logistic approximation of its CDF, which is monotone and cheap
+	static double phi(double elapsed, double mean, double stdDev) {
+		double y = (elapsed - mean) / stdDev;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (elapsed > mean) {
+			return -Math.log10(e / (1.0 + e));
+		}
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+}
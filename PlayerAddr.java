@@ -1,13 +1,21 @@
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Objects;
+
 /**
  * Created by yichao.wang on 18/9/16.
  */
-public class PlayerAddr implements java.io.Serializable {
+public class PlayerAddr implements java.io.Externalizable {
     // TODO: is ip_addr and port even necessary here?
     private static final long SerialVersionUID = 4236198814459693443L;
     public String ip_addr;
     public int port;
     public String playerID;
+    // port of the player's MoveServer, 0 if it only talks RMI
+    public int movePort;
 
+    // the same player at the same endpoint, movePort is not part of it
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -17,7 +25,7 @@ public class PlayerAddr implements java.io.Serializable {
             return false;
         }
         final PlayerAddr other = (PlayerAddr) obj;
-        return ip_addr.equals(other.ip_addr) || port == other.port || playerID.equals(other.ip_addr);
+        return Objects.equals(playerID, other.playerID) && Objects.equals(ip_addr, other.ip_addr) && port == other.port;
     }
 
      public PlayerAddr(String ip_addr, int port, String playerID) {
@@ -26,10 +34,44 @@ public class PlayerAddr implements java.io.Serializable {
          this.playerID = playerID;
      }
 
+    // for Externalizable only
+    public PlayerAddr() {}
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writeTo(writer);
+        writer.finish();
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(new WireCodec.Reader(in));
+    }
+
+    void writeTo(WireCodec.Writer writer) throws IOException {
+        writer.string(ip_addr);
+        writer.varInt(port);
+        writer.string(playerID);
+        writer.varInt(movePort);
+    }
+
+    void readFrom(WireCodec.Reader reader) throws IOException {
+        ip_addr = reader.string();
+        port = reader.varInt();
+        playerID = reader.string();
+        movePort = reader.varInt();
+    }
+
+    static PlayerAddr read(WireCodec.Reader reader) throws IOException {
+        PlayerAddr playerAddr = new PlayerAddr();
+        playerAddr.readFrom(reader);
+        return playerAddr;
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
         hash = 53 * hash + (this.ip_addr != null ? this.ip_addr.hashCode() : 0);
+        hash = 53 * hash + this.port;
         hash = 31 * hash + (this.playerID != null ? this.playerID.hashCode() : 0);
         return hash;
     }
@@ -1,139 +1,234 @@
 import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Map;
-import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class PrimaryHelper implements Runnable  {
-	private static final int SLEEP_PERIOD = 100;	
+	private static final long SLEEP_PERIOD = FailureDetector.HEARTBEAT_INTERVAL;
+	// a ping that has not returned this long after it was sent counts as missed,
+	// whether that makes the player dead is up to the failure detector
+	private static final long PING_TIMEOUT = Long.getLong("game.heartbeat.timeoutMs", 500);
+	private static final int PING_THREADS = Integer.getInteger("game.heartbeat.threads", 32);
 
 	// TODO: any place that access primaryPlayer may have concurrent access issue.
 	// think about how to solve it
 	Game primaryPlayer;
 	String logtag;
 
+	// pings of one sweep run concurrently on this pool
+	private final ExecutorService pingExecutor;
+	// pings that have been sent but not returned yet, by playerID
+	// a player is not pinged again while its previous ping is outstanding
+	private final Map<String, PingTask> outstandingPings = new ConcurrentHashMap<>();
+	// players the failure detector suspects but has not given up on, only touched by the helper thread
+	private final Set<String> suspected = new HashSet<>();
+	private final FailureDetector detector;
+
 	private final Logger LOGGER = Logger.getLogger("primaryPlayer");
+	private static final Trace.Event SWEEP = Trace.event("heartbeat.primarySweep", null, "players", "dead");
+	private static final Trace.Event SUSPECT = Trace.event("heartbeat.suspect", "player");
 
 	public PrimaryHelper(Game primaryPlayer){
 		this.primaryPlayer = primaryPlayer;
+		this.detector = primaryPlayer.failureDetector;
 		this.logtag = "[primary helper of "+primaryPlayer.myPlayerAddr.playerID+"] ";
+		this.pingExecutor = Executors.newFixedThreadPool(PING_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "heartbeat-"+primaryPlayer.myPlayerAddr.playerID);
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 	public void run() {
-		// keep pinging everybody 
+		// keep pinging everybody
 		LOGGER.info(logtag+"starts running");
 		while (true) {
 			try{
 				Thread.sleep(SLEEP_PERIOD);
 			} catch (Exception e){
 				LOGGER.warning(logtag+"sleep is interupted!");
-			}	
+			}
+
+			// a sweep is timed from the ping of ourselves on
+			long sweepStart = System.nanoTime();
 
 			// TODO: using remote call to detect self dead may be wrong!
-			// 		 since helper is only a thread, 
+			// 		 since helper is only a thread,
 			// 		 maybe we don't even have to worry about this?
 			// 		 anyway I don't think this will cause problem
 		    boolean selfUncontactable = false;
-		    try {		    	
-                GameRemote primaryPlayerStub = primaryPlayer.getPlayerStub(primaryPlayer.myPlayerAddr);                
-                if (primaryPlayerStub == null){                   
+		    try {
+                GameRemote primaryPlayerStub = primaryPlayer.getPlayerStub(primaryPlayer.myPlayerAddr);
+                if (primaryPlayerStub == null){
                     selfUncontactable = true;
                 } else {
-                    primaryPlayerStub.ping();    
-                }                    
+                    primaryPlayerStub.ping();
+                }
             } catch (Exception e) {
+                primaryPlayer.stubCache.invalidate(primaryPlayer.myPlayerAddr.playerID);
                 selfUncontactable = true;
-            } 			
-            
+            }
+
             if (selfUncontactable){
 				LOGGER.info(logtag+"primaryPlayerStub not contactable. shutting down...");
-            	return; 
+				pingExecutor.shutdownNow();
+            	return;
             }
 
-            // if has backupPlayer, let's ping it to check whether it's alive
-            if (!primaryPlayer.backupPlayerID.equals("")) {
-				boolean backupUncontactable = false;
-			    try {		    	
-			    	PlayerAddr backupAddr = primaryPlayer.playerAddrMap.get(primaryPlayer.backupPlayerID);
-			    	if (backupAddr == null){
-			    		LOGGER.warning(logtag+"BUGGY! fail to get backup server address of id: "+primaryPlayer.backupPlayerID+" from primaryPlayer.playerAddrMap");
-			    		backupUncontactable = true;
-			    	} else {
-			    		GameRemote backupPlayerStub = primaryPlayer.getPlayerStub(backupAddr);                
-		                if (backupPlayerStub == null){	                    
-		                    backupUncontactable = true;
-		                } else {
-		                    backupPlayerStub.ping();    
-		                }    	
-			    	}	                            
-	            } catch (Exception e) {
-	                backupUncontactable = true;
-	            } 
-
-	            if (backupUncontactable){
-	            	LOGGER.info(logtag+"backupUncontactable. removing backup: "+primaryPlayer.backupPlayerID);
-	            	// remove this player from gamestate as well as tracker info
-	            	primaryPlayer.forceRemovePlayer(primaryPlayer.backupPlayerID);
-
-					// promote somebody to be backup
-					// this step gurantees
-					// a) the old backup is remove, i.e. primaryPlayer.backupPlayerID = ""
-					// b) if the exist another player alive, he will become backup
-					// 	  i.e. the only possibility that we fails to promote a backup shoud be 
-					// 		   because we are the only player left in the game
-					// LOGGER.info(logtag+"attempt to promote someone to backup...");
-					// primaryPlayer.promoteSomeoneToBackup();
-	            } 
+            // ping the backup and all the normal players at once
+            // players found dead in this sweep are removed together afterwards,
+            // removing the backup also promotes somebody else to backup
+            Set<String> deadPlayerSet = sweep();
+			primaryPlayer.metrics.primarySweep.record(System.nanoTime() - sweepStart);
+			Trace.record(SWEEP, null, primaryPlayer.playerAddrMap.size(), deadPlayerSet.size());
 
-            }
+			if (!deadPlayerSet.isEmpty()){
+				LOGGER.info(logtag+"removing players "+deadPlayerSet);
+				primaryPlayer.forceRemovePlayers(deadPlayerSet);
+			}
+			// standbys lost to this or earlier sweeps, or players that are new enough to become one
+			primaryPlayer.refillStandbys();
 
-            // let's now ping other players to make sure they are alive 
-            Set<String> deadPlayerSet = new HashSet<>();
-            for (Map.Entry<String, PlayerAddr> entry : primaryPlayer.playerAddrMap.entrySet()) {
-			    String playerID = entry.getKey();
-			    PlayerAddr playerAddr = entry.getValue();
-
-			    if (playerID.equals(primaryPlayer.myPlayerAddr.playerID) || playerID.equals(primaryPlayer.backupPlayerID)) {
-			    	// no point checking them, we are only interested in normal players
-			    	continue;
-			    }
-
-			    boolean playerUncontactable = false;
-			    try {		    	
-			    	if (playerAddr == null){
-			    		LOGGER.warning(logtag+"Impossible! we got null value by iterating a map! playerID: "+playerID);
-			    		playerUncontactable = true;
-			    	} else {
-			    		GameRemote playerStub = primaryPlayer.getPlayerStub(playerAddr);                
-		                if (playerStub == null){	                    
-		                    playerUncontactable = true;
-		                } else {
-		                    playerStub.ping();    
-		                }    	
-			    	}	                            
-	            } catch (Exception e) {
-	                playerUncontactable = true;
-	            } 
-
-				if (playerUncontactable){
-					deadPlayerSet.add(playerID);
-					LOGGER.info(logtag+"dead player detected: "+playerID);
-	            } 
+			// By definition primary server should keep running untill it crash/exit
+			// so in no case that we should break out of the loop here
+		}
+
+	}
+
+	// pings every other player that has not called us lately concurrently and waits at most PING_TIMEOUT for them,
+	// then asks the failure detector about everybody, pinged this time or not
+	// @return: the players the failure detector says are dead
+	private Set<String> sweep() {
+		// copy, as playerAddrMap may change under us
+		Map<String, PlayerAddr> playerAddrMap = new HashMap<>(primaryPlayer.playerAddrMap);
+		playerAddrMap.remove(primaryPlayer.myPlayerAddr.playerID);
+
+		List<PingTask> sent = new ArrayList<>();
+		long sweepAt = System.currentTimeMillis();
+		for (Map.Entry<String, PlayerAddr> entry : playerAddrMap.entrySet()) {
+			String playerID = entry.getKey();
+			long heard = primaryPlayer.lastHeard.get(playerID);
+			if (LastHeard.isRecent(heard, sweepAt)) {
+				// its moves are its heartbeat, one per sweep at most, so that the detector sees the usual intervals
+				detector.heartbeat(playerID, heard);
+				primaryPlayer.metrics.pingsSkipped.incrementAndGet();
+				continue;
+			}
+			PingTask outstanding = outstandingPings.get(playerID);
+			if (outstanding != null) {
+				// still waiting for the ping of an earlier sweep
+				if (outstanding.isOverdue()) {
+					LOGGER.info(logtag+"ping of "+playerID+" has not returned in "+PING_TIMEOUT+" ms");
+					// pinged again next sweep, the late answer still counts as a heartbeat
+					outstandingPings.remove(playerID, outstanding);
+					detector.missed(playerID, System.currentTimeMillis());
+				}
+				continue;
 			}
+			PingTask task = new PingTask(playerID, entry.getValue());
+			outstandingPings.put(playerID, task);
+			sent.add(task);
+		}
+
+		CountDownLatch done = new CountDownLatch(sent.size());
+		for (PingTask task : sent) {
+			task.done = done;
+			pingExecutor.execute(task);
+		}
+		primaryPlayer.metrics.pingsSent.addAndGet(sent.size());
+		try {
+			done.await(PING_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			LOGGER.warning(logtag+"sweep is interupted!");
+		}
 
-			// remove the dead players
-			Iterator<String> iter = deadPlayerSet.iterator();
-			while (iter.hasNext()) {
-				String deadPlayerID = iter.next();
-				LOGGER.info(logtag+"removing player "+deadPlayerID);
-				primaryPlayer.forceRemovePlayer(deadPlayerID);
+		// the pings have told the detector themselves, those still out do so when they return
+		Set<String> deadPlayerSet = new HashSet<>();
+		long now = System.currentTimeMillis();
+		for (String playerID : playerAddrMap.keySet()) {
+			switch (detector.status(playerID, now)) {
+				case DEAD:
+					LOGGER.info(logtag+"dead player detected: "+playerID+", suspicion "+detector.suspicion(playerID, now));
+					deadPlayerSet.add(playerID);
+					suspected.remove(playerID);
+					outstandingPings.remove(playerID);
+					primaryPlayer.metrics.deaths.incrementAndGet();
+					break;
+				case SUSPECT:
+					if (suspected.add(playerID)) {
+						LOGGER.info(logtag+"player suspected: "+playerID+", suspicion "+detector.suspicion(playerID, now));
+						primaryPlayer.metrics.suspicions.incrementAndGet();
+						Trace.record(SUSPECT, playerID);
+					}
+					break;
+				default:
+					suspected.remove(playerID);
 			}
+		}
+		// players that have left meanwhile
+		suspected.retainAll(playerAddrMap.keySet());
+		return deadPlayerSet;
+	}
 
+	private class PingTask implements Runnable {
+		static final int PENDING = 0;
+		static final int ALIVE = 1;
+		static final int DEAD = 2;
 
-			// By definition primary server should keep running untill it crash/exit
-			// so in no case that we should break out of the loop here
+		final String playerID;
+		final PlayerAddr playerAddr;
+		CountDownLatch done;
+		volatile long sentAt = 0;
+		volatile int result = PENDING;
+
+		PingTask(String playerID, PlayerAddr playerAddr) {
+			this.playerID = playerID;
+			this.playerAddr = playerAddr;
+		}
+
+		// only a ping that has actually been sent can time out,
+		// one still queued for a pool thread says nothing about the player
+		boolean isOverdue() {
+			long sent = sentAt;
+			return result == PENDING && sent != 0 && System.currentTimeMillis() - sent > PING_TIMEOUT;
 		}
 
+		public void run() {
+			sentAt = System.currentTimeMillis();
+			boolean playerUncontactable = false;
+			try {
+				if (playerAddr == null){
+					LOGGER.warning(logtag+"Impossible! we got null value by iterating a map! playerID: "+playerID);
+					playerUncontactable = true;
+				} else {
+					GameRemote playerStub = primaryPlayer.getPlayerStub(playerAddr);
+					if (playerStub == null){
+						playerUncontactable = true;
+					} else {
+						playerStub.ping();
+					}
+				}
+			} catch (Exception e) {
+				primaryPlayer.stubCache.invalidate(playerID);
+				playerUncontactable = true;
+			}
+			result = playerUncontactable ? DEAD : ALIVE;
+			if (playerUncontactable) {
+				detector.missed(playerID, System.currentTimeMillis());
+			} else {
+				detector.heartbeat(playerID, System.currentTimeMillis());
+			}
+			outstandingPings.remove(playerID, this);
+			done.countDown();
+		}
 	}
 
-}
\ No newline at end of file
+}
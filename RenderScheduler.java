@@ -0,0 +1,143 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/*
+    RenderScheduler takes the interface updates off the game threads.
+    A game thread only says that something is there to show, which costs a couple of atomics,
+    and the rendering happens in one task on the Event Dispatch Thread, at most -Dgame.ui.fps (30) times a second.
+    Whatever was published in between is dropped; a frame shows only the newest of:
+      - the live state, which changed under the gameStateLock, copied at frame time through the snapshot supplier
+      - a GameState that nobody changes any more, e.g. the primary's reply to our moves
+      - a prediction of our own moves
+    States older than what is on screen are not shown, predictions are shown whatever their version.
+ */
+public class RenderScheduler {
+    private static final int FPS = Math.max(1, Integer.getInteger("game.ui.fps", 30));
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / FPS;
+
+    private final GameInterface gameInterface;
+    // an immutable copy of the live state, or null if it cannot be had right now
+    private final Supplier<GameState> liveSnapshot;
+    // role to show, read at frame time
+    private final IntSupplier role;
+
+    // every publish gets the next number, the newest one pending is shown
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicLong liveSeq = new AtomicLong();
+    private final AtomicReference<Pending> reply = new AtomicReference<>();
+    private final AtomicReference<Pending> prediction = new AtomicReference<>();
+    // a frame has been asked for and has not started yet
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable frameDue = this::frameDue;
+
+    // only touched on the EDT
+    private final Timer frameTimer;
+    private long renderedSeq = 0;
+    private long shownVersion = -1;
+    private long lastFrameAt = System.nanoTime() - FRAME_NANOS;
+
+    public RenderScheduler(GameInterface gameInterface, Supplier<GameState> liveSnapshot, IntSupplier role) {
+        this.gameInterface = gameInterface;
+        this.liveSnapshot = liveSnapshot;
+        this.role = role;
+        this.frameTimer = new Timer(0, event -> render());
+        this.frameTimer.setRepeats(false);
+    }
+
+    // the live state has changed, may be called with the gameStateLock held
+    public void liveChanged() {
+        liveSeq.accumulateAndGet(seq.incrementAndGet(), Math::max);
+        requestFrame();
+    }
+
+    // gameState must not be changed after this call
+    public void show(GameState gameState) {
+        reply.set(new Pending(seq.incrementAndGet(), gameState, null));
+        requestFrame();
+    }
+
+    public void showPrediction(InterfaceData data) {
+        prediction.set(new Pending(seq.incrementAndGet(), null, data));
+        requestFrame();
+    }
+
+    private void requestFrame() {
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(frameDue);
+        }
+    }
+
+    // on the EDT, renders now or when the frame interval is over
+    private void frameDue() {
+        long wait = lastFrameAt + FRAME_NANOS - System.nanoTime();
+        if (wait <= 0) {
+            render();
+        } else {
+            frameTimer.setInitialDelay((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            frameTimer.restart();
+        }
+    }
+
+    private void render() {
+        // whatever is published from here on asks for the next frame
+        scheduled.set(false);
+        lastFrameAt = System.nanoTime();
+
+        long live = liveSeq.get();
+        Pending latestReply = reply.getAndSet(null);
+        Pending latestPrediction = prediction.getAndSet(null);
+        if (latestReply != null && latestReply.gameState.version < shownVersion) {
+            latestReply = null;
+        }
+
+        long newest = Math.max(live, Math.max(latestReply == null ? 0 : latestReply.seq,
+                latestPrediction == null ? 0 : latestPrediction.seq));
+        if (newest <= renderedSeq) {
+            return;
+        }
+
+        if (latestPrediction != null && latestPrediction.seq == newest) {
+            gameInterface.updateInterface(latestPrediction.data);
+        } else {
+            GameState gameState;
+            if (latestReply != null && latestReply.seq == newest) {
+                gameState = latestReply.gameState;
+            } else {
+                gameState = liveSnapshot.get();
+                if (gameState == null) {
+                    // the game is busy with the state, try again next frame
+                    if (latestReply != null) {
+                        reply.compareAndSet(null, latestReply);
+                    }
+                    requestFrame();
+                    return;
+                }
+            }
+            // the live state of a normal player may still be behind a reply we have shown
+            if (gameState.version >= shownVersion) {
+                shownVersion = gameState.version;
+                gameInterface.updateInterface(Common.prepareInterfaceData(gameState, role.getAsInt()));
+            }
+        }
+        renderedSeq = newest;
+    }
+
+    private static class Pending {
+        final long seq;
+        final GameState gameState;
+        final InterfaceData data;
+
+        Pending(long seq, GameState gameState, InterfaceData data) {
+            this.seq = seq;
+            this.gameState = gameState;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/*
+    ReplicationPipeline streams the primary's committed changes to the backup on its own thread,
+    so that the gameStateLock is never held across an RMI call to the backup.
+    Changes are queued in commit order with a sequence number; the primary decides
+    through the policy how long to wait for the backup to ack a change before answering the client.
+    The pipeline of the backup sends to whoever is backup at the time; every warm standby
+    has a pipeline of its own, which is never waited for.
+ */
+public class ReplicationPipeline implements Runnable {
+
+    public enum Policy {
+        SYNC,       // wait until the backup has the change
+        ASYNC,      // never wait
+        SEMI_SYNC   // wait at most maxLagMillis
+    }
+
+    private final Game primaryPlayer;
+    // null for the backup's pipeline
+    private final String standbyPlayerID;
+    private final Policy policy;
+    private final long maxLagMillis;
+    private final String logtag;
+    private final Logger LOGGER = Logger.getLogger("ReplicationPipeline");
+
+    private final Queue<Entry> queue = new ArrayDeque<>();
+    private final Lock queueLock = new ReentrantLock();
+    private final Condition queueNotEmpty = queueLock.newCondition();
+    private final Condition progressed = queueLock.newCondition();
+
+    private long lastSeq = 0;
+    // every entry up to processedSeq has been attempted, up to ackedSeq the backup has it
+    private long processedSeq = 0;
+    private long ackedSeq = 0;
+    private boolean stopped = false;
+
+    // only touched by the sender thread
+    private boolean needsFullState = false;
+    // version of the last full state sent, deltas up to it are skipped
+    private long fullStateVersion = 0;
+    // who the last entry went to, the backup may have changed since
+    private String lastTarget = "";
+
+    public ReplicationPipeline(Game primaryPlayer, Policy policy, long maxLagMillis) {
+        this(primaryPlayer, null, policy, maxLagMillis);
+    }
+
+    private ReplicationPipeline(Game primaryPlayer, String standbyPlayerID, Policy policy, long maxLagMillis) {
+        this.primaryPlayer = primaryPlayer;
+        this.standbyPlayerID = standbyPlayerID;
+        this.policy = policy;
+        this.maxLagMillis = maxLagMillis;
+        this.logtag = "[replication of " + primaryPlayer.myPlayerAddr.playerID
+                + (standbyPlayerID == null ? "" : " to standby " + standbyPlayerID) + "] ";
+    }
+
+    // for a warm standby, asynchronous whatever the policy of the backup
+    public static ReplicationPipeline forStandby(Game primaryPlayer, String standbyPlayerID) {
+        return new ReplicationPipeline(primaryPlayer, standbyPlayerID, Policy.ASYNC, 0);
+    }
+
+    // reads -Dgame.replication.policy=sync|async|semisync and -Dgame.replication.maxLagMs
+    public static ReplicationPipeline fromSystemProperties(Game primaryPlayer) {
+        String name = System.getProperty("game.replication.policy", "sync");
+        Policy policy;
+        switch (name) {
+            case "async":
+                policy = Policy.ASYNC; break;
+            case "semisync":
+                policy = Policy.SEMI_SYNC; break;
+            default:
+                policy = Policy.SYNC; break;
+        }
+        long maxLagMillis = Long.getLong("game.replication.maxLagMs", 50);
+        return new ReplicationPipeline(primaryPlayer, policy, maxLagMillis);
+    }
+
+    // queue a sealed delta, or a request for the full state when delta is null
+    // called under the primary's deltaLock, so sequence numbers follow the version order
+    // @return: the sequence number to pass to awaitReplication
+    public long enqueue(GameStateDelta delta) {
+        queueLock.lock();
+        try {
+            long seq = ++lastSeq;
+            queue.add(new Entry(seq, delta));
+            queueNotEmpty.signal();
+            return seq;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // block the caller as long as the policy asks for
+    // @return: false only if the policy waits and the backup has not acked seq in time;
+    //          always true under ASYNC, which waits for nothing
+    public boolean awaitReplication(long seq) {
+        if (policy == Policy.ASYNC) {
+            return true;
+        }
+        queueLock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+            while (processedSeq < seq) {
+                if (policy == Policy.SEMI_SYNC) {
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    remaining = progressed.awaitNanos(remaining);
+                } else {
+                    progressed.await();
+                }
+            }
+            return ackedSeq >= seq;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // number of queued changes the backup has not acked yet
+    public long getLag() {
+        queueLock.lock();
+        try {
+            return lastSeq - ackedSeq;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // the standby has left the chain, the sender thread finishes after the entry it is sending
+    public void stop() {
+        queueLock.lock();
+        try {
+            stopped = true;
+            queue.clear();
+            queueNotEmpty.signal();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    public void run() {
+        LOGGER.info(logtag + "starts running");
+        while (true) {
+            Entry entry;
+            queueLock.lock();
+            try {
+                while (queue.isEmpty() && !stopped) {
+                    queueNotEmpty.await();
+                }
+                if (stopped) {
+                    LOGGER.info(logtag + "stopped");
+                    return;
+                }
+                entry = queue.poll();
+            } catch (InterruptedException e) {
+                LOGGER.warning(logtag + "interrupted, shutting down");
+                return;
+            } finally {
+                queueLock.unlock();
+            }
+
+            long start = System.nanoTime();
+            boolean ok = send(entry);
+            primaryPlayer.metrics.backupUpdate.record(System.nanoTime() - start);
+            if (ok) {
+                primaryPlayer.metrics.backupUpdates.incrementAndGet();
+            } else {
+                primaryPlayer.metrics.backupUpdateFailures.incrementAndGet();
+            }
+            queueLock.lock();
+            processedSeq = entry.seq;
+            if (ok) {
+                ackedSeq = entry.seq;
+            }
+            progressed.signalAll();
+            queueLock.unlock();
+        }
+    }
+
+    private boolean send(Entry entry) {
+        String backupPlayerID = standbyPlayerID != null ? standbyPlayerID : primaryPlayer.backupPlayerID;
+        if (backupPlayerID.equals("")) {
+            // nothing to replicate to, the next backup is a standby or is promoted with the full state
+            needsFullState = false;
+            return true;
+        }
+        if (!backupPlayerID.equals(lastTarget)) {
+            // a standby that has become backup is mostly up to date, it reports a gap if it is not
+            lastTarget = backupPlayerID;
+            needsFullState = false;
+            fullStateVersion = 0;
+        }
+        if (entry.delta != null && entry.delta.version <= fullStateVersion) {
+            // already covered by a full state we sent
+            return true;
+        }
+
+        PlayerAddr backupAddr = primaryPlayer.playerAddrMap.get(backupPlayerID);
+        if (backupAddr == null) {
+            LOGGER.warning(logtag + "fail to get backup address of id: " + backupPlayerID);
+            needsFullState = true;
+            return false;
+        }
+
+        try {
+            GameRemote backupStub = primaryPlayer.getPlayerStub(backupAddr);
+            if (entry.delta != null && !needsFullState) {
+                if (backupStub.applyGameStateDelta(entry.delta)) {
+                    return true;
+                }
+                LOGGER.info(logtag + "backup reports version gap, sending full gamestate");
+            }
+            GameState gameState = primaryPlayer.prepareBackupSnapshot();
+            backupStub.updateGameState(gameState);
+            fullStateVersion = gameState.version;
+            needsFullState = false;
+            return true;
+        } catch (Exception e) {
+            // the helper thread will find out whether the backup is dead
+            primaryPlayer.stubCache.invalidate(backupPlayerID);
+            LOGGER.warning(logtag + "update backup fail: " + e);
+            needsFullState = true;
+            return false;
+        }
+    }
+
+    private static class Entry {
+        final long seq;
+        final GameStateDelta delta;
+
+        Entry(long seq, GameStateDelta delta) {
+            this.seq = seq;
+            this.delta = delta;
+        }
+    }
+}
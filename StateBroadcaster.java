@@ -0,0 +1,174 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/*
+    StateBroadcaster pushes the primary's changes to the normal players, so that they see the board
+    move without asking for it (the backup and the standbys have their own feed, see ReplicationPipeline).
+    Every delta the primary seals is merged into the current window, and every windowMillis
+    (-Dgame.broadcast.windowMs) the window goes out to all subscribers as one delta.
+    A subscriber has at most one send in flight; windows that come in meanwhile are merged
+    into its backlog, so a slow player gets fewer and bigger deltas and never holds up the primary.
+    A merged delta is bounded by the board size and the player count, however far behind the player is.
+    A player that reports a version gap gets a full snapshot, and the deltas it already has are skipped.
+ */
+public class StateBroadcaster implements Runnable {
+    private final Game primaryPlayer;
+    private final long windowMillis;
+    private final String logtag;
+    private final Logger LOGGER = Logger.getLogger("StateBroadcaster");
+
+    // deltas sealed since the last flush, merged, null if none
+    // also held across a flush, so that every subscriber gets the windows in order
+    private final Object windowLock = new Object();
+    private GameStateDelta window;
+
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService senders;
+
+    public StateBroadcaster(Game primaryPlayer, long windowMillis, int senderThreads) {
+        this.primaryPlayer = primaryPlayer;
+        this.windowMillis = windowMillis;
+        this.logtag = "[broadcast of " + primaryPlayer.myPlayerAddr.playerID + "] ";
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "broadcast-" + primaryPlayer.myPlayerAddr.playerID);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // reads -Dgame.broadcast.windowMs and -Dgame.broadcast.threads
+    public static StateBroadcaster fromSystemProperties(Game primaryPlayer) {
+        return new StateBroadcaster(primaryPlayer,
+                Long.getLong("game.broadcast.windowMs", 50),
+                Integer.getInteger("game.broadcast.threads", 4));
+    }
+
+    // called by the primary for every sealed delta, in version order
+    public void publish(GameStateDelta delta) {
+        synchronized (windowLock) {
+            if (window == null) {
+                window = delta.copy();
+            } else {
+                window.append(delta);
+            }
+        }
+    }
+
+    // playerID has the gamestate at version, and gets every change after it
+    // must be called under the primary's write lock, so that no delta is sealed in between
+    public void subscribe(String playerID, long version) {
+        Subscriber subscriber = new Subscriber(playerID);
+        subscriber.skipUpTo = version;
+        subscribers.put(playerID, subscriber);
+        // cut the window here, so that the next one starts at version
+        flush();
+    }
+
+    public void unsubscribe(String playerID) {
+        subscribers.remove(playerID);
+    }
+
+    public void run() {
+        LOGGER.info(logtag + "starts running");
+        while (true) {
+            try {
+                Thread.sleep(windowMillis);
+            } catch (InterruptedException e) {
+                LOGGER.warning(logtag + "interrupted, shutting down");
+                senders.shutdownNow();
+                return;
+            }
+            flush();
+        }
+    }
+
+    private void flush() {
+        synchronized (windowLock) {
+            if (window == null) {
+                return;
+            }
+            GameStateDelta delta = window;
+            window = null;
+            for (Subscriber subscriber : subscribers.values()) {
+                if (!primaryPlayer.isReplica(subscriber.playerID)) {
+                    subscriber.offer(delta);
+                }
+            }
+        }
+    }
+
+    // called by the primary under its write lock, right after taking the snapshot for subscriber
+    void snapshotTaken(Subscriber subscriber, long version) {
+        synchronized (subscriber) {
+            subscriber.backlog = null;
+            subscriber.skipUpTo = version;
+        }
+        // everything up to version is in the snapshot, cut the window there
+        flush();
+    }
+
+    class Subscriber {
+        final String playerID;
+        // the player already has every version up to this one
+        long skipUpTo;
+        boolean inFlight = false;
+        // windows that came in while a send was in flight, merged
+        GameStateDelta backlog;
+
+        Subscriber(String playerID) {
+            this.playerID = playerID;
+        }
+
+        // delta is shared between the subscribers and must not be changed
+        synchronized void offer(GameStateDelta delta) {
+            if (delta.version <= skipUpTo) {
+                return;
+            }
+            if (inFlight) {
+                if (backlog == null) {
+                    backlog = delta.copy();
+                } else {
+                    backlog.append(delta);
+                }
+                return;
+            }
+            inFlight = true;
+            senders.execute(() -> send(delta));
+        }
+
+        private void send(GameStateDelta delta) {
+            PlayerAddr playerAddr = primaryPlayer.playerAddrMap.get(playerID);
+            if (playerAddr == null) {
+                // gone, removePlayerState unsubscribes it
+                unsubscribe(playerID);
+                return;
+            }
+            try {
+                GameRemote playerStub = primaryPlayer.getPlayerStub(playerAddr);
+                if (!playerStub.applyGameStateDelta(delta)) {
+                    LOGGER.info(logtag + playerID + " reports version gap, sending full gamestate");
+                    playerStub.updateGameState(primaryPlayer.prepareBroadcastSnapshot(this));
+                }
+            } catch (Exception e) {
+                // the player misses this delta and gets a snapshot on the next one,
+                // if it is dead the primary helper removes it
+                primaryPlayer.stubCache.invalidate(playerID);
+                LOGGER.warning(logtag + "push to " + playerID + " fails: " + e);
+            }
+
+            GameStateDelta next;
+            synchronized (this) {
+                next = backlog;
+                backlog = null;
+                if (next == null) {
+                    inFlight = false;
+                    return;
+                }
+            }
+            senders.execute(() -> send(next));
+        }
+    }
+}
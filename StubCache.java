@@ -0,0 +1,103 @@
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/*
+    StubCache keeps the GameRemote stub of every player we have talked to, keyed by playerID,
+    so that the hot paths (moves, replication, pings) skip the registry lookup.
+    A caller that gets a RemoteException from a stub must invalidate it;
+    the refresher thread re-resolves every cached stub in the background
+    so that a player re-binding itself is picked up without a failed call.
+ */
+public class StubCache implements Runnable {
+    private static final int REFRESH_PERIOD = 1000;
+
+    private final Map<String, Entry> stubs = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Logger LOGGER = Logger.getLogger("StubCache");
+
+    public GameRemote get(PlayerAddr playerAddr) throws RemoteException, NotBoundException {
+        Entry entry = stubs.get(playerAddr.playerID);
+        if (entry != null && entry.ip_addr.equals(playerAddr.ip_addr) && entry.port == playerAddr.port) {
+            hits.incrementAndGet();
+            return entry.stub;
+        }
+        misses.incrementAndGet();
+        GameRemote stub = lookup(playerAddr.ip_addr, playerAddr.port, playerAddr.playerID);
+        stubs.put(playerAddr.playerID, new Entry(playerAddr.ip_addr, playerAddr.port, stub));
+        return stub;
+    }
+
+    // drop the stub of a player whose remote call has failed
+    public void invalidate(String playerID) {
+        if (stubs.remove(playerID) != null) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        return stubs.size();
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(REFRESH_PERIOD);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (Map.Entry<String, Entry> cached : stubs.entrySet()) {
+                String playerID = cached.getKey();
+                Entry entry = cached.getValue();
+                try {
+                    GameRemote stub = lookup(entry.ip_addr, entry.port, playerID);
+                    // only replace the entry if nobody has changed it meanwhile
+                    stubs.replace(playerID, entry, new Entry(entry.ip_addr, entry.port, stub));
+                } catch (Exception e) {
+                    LOGGER.fine("refreshing stub of " + playerID + " fails, evicting: " + e);
+                    if (stubs.remove(playerID, entry)) {
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    private static GameRemote lookup(String ip_addr, int port, String playerID) throws RemoteException, NotBoundException {
+        Registry registry = LocateRegistry.getRegistry(ip_addr, port);
+        return (GameRemote) registry.lookup(playerID);
+    }
+
+    private static class Entry {
+        final String ip_addr;
+        final int port;
+        final GameRemote stub;
+
+        Entry(String ip_addr, int port, GameRemote stub) {
+            this.ip_addr = ip_addr;
+            this.port = port;
+            this.stub = stub;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    TileLocks splits the N*N board into square tiles of tileSize*tileSize cells with one lock each,
+    so that on the primary moves on different parts of the board run in parallel.
+    A move holds the tiles of the cell it leaves and the cell it enters; when those are two tiles
+    they are always taken in ascending tile order, so two moves never wait on each other in a cycle.
+    A tileSize of N or more gives a single tile, i.e. every move is serialized as before.
+    Anything that changes the membership or needs the whole board takes the write side of
+    Game.gameStateLock instead, which keeps all the moves out.
+ */
+public class TileLocks {
+    private final int N;
+    private final int tileSize;
+    private final int tilesPerRow;
+    private final ReentrantLock[] locks;
+
+    public TileLocks(int N, int tileSize) {
+        this.N = N;
+        this.tileSize = Math.max(1, Math.min(tileSize, N));
+        this.tilesPerRow = (N + this.tileSize - 1) / this.tileSize;
+        this.locks = new ReentrantLock[tilesPerRow * tilesPerRow];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public int tileCount() {
+        return locks.length;
+    }
+
+    // tile of a MazeGrid cell index
+    public int tileOf(int index) {
+        int x = index / N;
+        int y = index % N;
+        return (x / tileSize) * tilesPerRow + y / tileSize;
+    }
+
+    public void lock(int index) {
+        locks[tileOf(index)].lock();
+    }
+
+    public void unlock(int index) {
+        locks[tileOf(index)].unlock();
+    }
+
+    // locks the tiles of both cells, in ascending tile order
+    public void lock(int indexA, int indexB) {
+        int a = tileOf(indexA);
+        int b = tileOf(indexB);
+        if (a == b) {
+            locks[a].lock();
+        } else {
+            locks[Math.min(a, b)].lock();
+            locks[Math.max(a, b)].lock();
+        }
+    }
+
+    public void unlock(int indexA, int indexB) {
+        int a = tileOf(indexA);
+        int b = tileOf(indexB);
+        locks[a].unlock();
+        if (a != b) {
+            locks[b].unlock();
+        }
+    }
+}
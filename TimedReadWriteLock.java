@@ -0,0 +1,133 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+    TimedReadWriteLock is a ReentrantReadWriteLock that records how long threads wait for each side
+    and how long they hold it, into <name>.readWait, .readHold, .writeWait and .writeHold.
+    Only the outermost acquire of a reentrant hold counts.
+    The writer's start time is a plain field, as there is one writer at a time;
+    the readers keep theirs in a thread local, which allocates once per thread and never on a lock.
+ */
+public class TimedReadWriteLock implements ReadWriteLock {
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Lock readLock;
+	private final Lock writeLock;
+
+	private final LatencyHistogram readWait, readHold, writeWait, writeHold;
+	// when the current writer got the lock, only touched by the writer
+	private long writeAcquiredAt;
+	private final ThreadLocal<long[]> readAcquiredAt = ThreadLocal.withInitial(() -> new long[1]);
+
+	public TimedReadWriteLock(Metrics metrics, String name) {
+		this.readWait = metrics.latency(name + ".readWait");
+		this.readHold = metrics.latency(name + ".readHold");
+		this.writeWait = metrics.latency(name + ".writeWait");
+		this.writeHold = metrics.latency(name + ".writeHold");
+		this.readLock = new ReadSide();
+		this.writeLock = new WriteSide();
+	}
+
+	public Lock readLock() {
+		return readLock;
+	}
+
+	public Lock writeLock() {
+		return writeLock;
+	}
+
+	private class ReadSide extends TimedLock {
+		ReadSide() {
+			super(lock.readLock());
+		}
+
+		void acquired(long start, long now) {
+			if (lock.getReadHoldCount() == 1) {
+				readWait.record(now - start);
+				readAcquiredAt.get()[0] = now;
+			}
+		}
+
+		void releasing(long now) {
+			if (lock.getReadHoldCount() == 1) {
+				readHold.record(now - readAcquiredAt.get()[0]);
+			}
+		}
+	}
+
+	private class WriteSide extends TimedLock {
+		WriteSide() {
+			super(lock.writeLock());
+		}
+
+		void acquired(long start, long now) {
+			if (lock.getWriteHoldCount() == 1) {
+				writeWait.record(now - start);
+				writeAcquiredAt = now;
+			}
+		}
+
+		void releasing(long now) {
+			if (lock.getWriteHoldCount() == 1) {
+				writeHold.record(now - writeAcquiredAt);
+			}
+		}
+	}
+
+	private abstract static class TimedLock implements Lock {
+		private final Lock lock;
+
+		TimedLock(Lock lock) {
+			this.lock = lock;
+		}
+
+		// called holding the lock, start is when the caller asked for it
+		abstract void acquired(long start, long now);
+
+		// called still holding the lock, before it is released
+		abstract void releasing(long now);
+
+		public void lock() {
+			long start = System.nanoTime();
+			lock.lock();
+			acquired(start, System.nanoTime());
+		}
+
+		public void lockInterruptibly() throws InterruptedException {
+			long start = System.nanoTime();
+			lock.lockInterruptibly();
+			acquired(start, System.nanoTime());
+		}
+
+		public boolean tryLock() {
+			long start = System.nanoTime();
+			if (!lock.tryLock()) {
+				return false;
+			}
+			acquired(start, System.nanoTime());
+			return true;
+		}
+
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			long start = System.nanoTime();
+			if (!lock.tryLock(time, unit)) {
+				return false;
+			}
+			acquired(start, System.nanoTime());
+			return true;
+		}
+
+		public void unlock() {
+			releasing(System.nanoTime());
+			lock.unlock();
+		}
+
+		// waiting on a condition gives up the lock without going through unlock,
+		// so the hold time of a waiter includes its wait
+		public Condition newCondition() {
+			return lock.newCondition();
+		}
+	}
+}
@@ -0,0 +1,296 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/*
+    Trace records what the hot paths do, in place of LOGGER.info with string concatenation.
+    An event is a preallocated Event (a name and the labels of its arguments) plus up to one object
+    and two longs. The object is one that exists anyway, e.g. a playerID, so recording allocates nothing.
+    Every thread writes into a ring of its own, so recording takes no lock either;
+    a full ring overwrites its oldest events.
+    While nobody is listening, record is a read of a volatile flag and nothing else.
+
+    -Dgame.trace=<file> records from the start and has a drainer thread append the rings to the file
+    every -Dgame.trace.flushMs (100); -Dgame.trace.ringSize (4096) events per thread.
+    Over JMX (game:type=Trace) recording can be turned on and off and the rings dumped to a file at any time.
+    The drainer drops the rings of dead threads once it has written them out; without a drainer they are
+    dropped when the next thread starts recording and after a dump, so short lived threads do not pile up.
+    A line is: seconds since the trace started, thread, event name, label=value...
+ */
+public final class Trace implements TraceMBean {
+	private static final int RING_SIZE = Integer.highestOneBit(Math.max(16, Integer.getInteger("game.trace.ringSize", 4096)));
+	private static final long FLUSH_MILLIS = Long.getLong("game.trace.flushMs", 100);
+	private static final String FILE = System.getProperty("game.trace");
+
+	private static volatile boolean enabled = FILE != null;
+	private static final long startNanos = System.nanoTime();
+	private static final long startMillis = System.currentTimeMillis();
+	private static final List<Ring> rings = new CopyOnWriteArrayList<>();
+	private static final ThreadLocal<Ring> ring = new ThreadLocal<>();
+	// while the drainer runs, it removes the rings it has finished with
+	private static volatile boolean draining = false;
+
+	private static final Logger LOGGER = Logger.getLogger("Game");
+	private static final String logtag = "[trace] ";
+
+	static {
+		if (FILE != null) {
+			draining = true;
+			Thread drainer = new Thread(new Drainer(FILE), "trace-drainer");
+			drainer.setDaemon(true);
+			drainer.start();
+		}
+		Metrics metrics = new Metrics();
+		metrics.add("Trace", null, new Trace());
+		metrics.publish("component=trace");
+	}
+
+	private Trace() {
+	}
+
+	// @param labels: names of the object, the first and the second long, as many as the event uses,
+	//                null for one it leaves out, e.g. an event with only longs
+	public static Event event(String name, String... labels) {
+		return new Event(name, labels);
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void record(Event event) {
+		if (enabled) {
+			ring().add(event, null, 0, 0);
+		}
+	}
+
+	public static void record(Event event, Object value) {
+		if (enabled) {
+			ring().add(event, value, 0, 0);
+		}
+	}
+
+	public static void record(Event event, Object value, long a) {
+		if (enabled) {
+			ring().add(event, value, a, 0);
+		}
+	}
+
+	public static void record(Event event, Object value, long a, long b) {
+		if (enabled) {
+			ring().add(event, value, a, b);
+		}
+	}
+
+	private static Ring ring() {
+		Ring current = ring.get();
+		if (current == null) {
+			// once per thread
+			current = new Ring(Thread.currentThread());
+			ring.set(current);
+			if (!draining) {
+				pruneDead();
+			}
+			rings.add(current);
+		}
+		return current;
+	}
+
+	// drops the rings of the threads that have ended, what they hold is lost
+	private static void pruneDead() {
+		rings.removeIf(r -> !r.thread.isAlive());
+	}
+
+	/******  TraceMBean  ******/
+
+	public boolean isRecording() {
+		return enabled;
+	}
+
+	public void start() {
+		enabled = true;
+	}
+
+	public void stop() {
+		enabled = false;
+	}
+
+	public long getDropped() {
+		long dropped = 0;
+		for (Ring r : rings) {
+			dropped += r.dropped;
+		}
+		return dropped;
+	}
+
+	// writes what the rings hold now, oldest first, without taking it away from the drainer
+	public int dump(String path) throws IOException {
+		List<Line> lines = new ArrayList<>();
+		for (Ring r : rings) {
+			r.read(lines, false);
+		}
+		if (!draining) {
+			pruneDead();
+		}
+		try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+			return write(out, lines);
+		}
+	}
+
+	private static int write(PrintWriter out, List<Line> lines) {
+		lines.sort(Comparator.comparingLong(line -> line.nanos));
+		StringBuilder sb = new StringBuilder();
+		for (Line line : lines) {
+			sb.setLength(0);
+			line.appendTo(sb);
+			out.println(sb);
+		}
+		out.flush();
+		return lines.size();
+	}
+
+	/*
+		Kind of an event, create once with Trace.event and keep in a static final.
+	 */
+	public static final class Event {
+		final String name;
+		final String[] labels;
+
+		private Event(String name, String[] labels) {
+			this.name = name;
+			this.labels = labels;
+		}
+	}
+
+	/*
+		Events of one thread. The owner writes a slot and then moves head, the readers read slots
+		below head and check afterwards that the owner has not come round to them meanwhile.
+	 */
+	private static final class Ring {
+		final String threadName;
+		final Thread thread;
+		final long[] nanos = new long[RING_SIZE];
+		final Event[] events = new Event[RING_SIZE];
+		final Object[] values = new Object[RING_SIZE];
+		final long[] as = new long[RING_SIZE];
+		final long[] bs = new long[RING_SIZE];
+		volatile long head = 0;
+		// next event the drainer writes, only touched by the drainer
+		long drained = 0;
+		volatile long dropped = 0;
+
+		Ring(Thread thread) {
+			this.thread = thread;
+			// one word, so that the lines split on spaces
+			this.threadName = thread.getName().replace(' ', '_');
+		}
+
+		void add(Event event, Object value, long a, long b) {
+			long h = head;
+			int i = (int) (h & (RING_SIZE - 1));
+			nanos[i] = System.nanoTime();
+			events[i] = event;
+			values[i] = value;
+			as[i] = a;
+			bs[i] = b;
+			head = h + 1;
+		}
+
+		// @param consume: true for the drainer, which goes on from where it stopped last time
+		void read(List<Line> lines, boolean consume) {
+			long h = head;
+			long from = Math.max(consume ? drained : 0, h - RING_SIZE);
+			int first = lines.size();
+			for (long seq = from; seq < h; seq++) {
+				int i = (int) (seq & (RING_SIZE - 1));
+				lines.add(new Line(nanos[i], threadName, events[i], values[i], as[i], bs[i]));
+			}
+			// the oldest ones may have been overwritten by the owner while we copied them
+			long validFrom = Math.max(from, head - RING_SIZE);
+			if (validFrom > from) {
+				lines.subList(first, first + (int) Math.min(validFrom - from, h - from)).clear();
+			}
+			if (consume) {
+				dropped += Math.max(0, validFrom - drained);
+				drained = h;
+			}
+		}
+
+		boolean isFinished() {
+			return !thread.isAlive() && drained == head;
+		}
+	}
+
+	private static final class Line {
+		final long nanos;
+		final String threadName;
+		final Event event;
+		final Object value;
+		final long a, b;
+
+		Line(long nanos, String threadName, Event event, Object value, long a, long b) {
+			this.nanos = nanos;
+			this.threadName = threadName;
+			this.event = event;
+			this.value = value;
+			this.a = a;
+			this.b = b;
+		}
+
+		void appendTo(StringBuilder sb) {
+			sb.append(String.format(Locale.ROOT, "%.6f", (nanos - startNanos) / 1e9))
+					.append(' ').append(threadName).append(' ').append(event.name);
+			String[] labels = event.labels;
+			if (labels.length > 0 && labels[0] != null) {
+				sb.append(' ').append(labels[0]).append('=').append(value);
+			}
+			if (labels.length > 1 && labels[1] != null) {
+				sb.append(' ').append(labels[1]).append('=').append(a);
+			}
+			if (labels.length > 2 && labels[2] != null) {
+				sb.append(' ').append(labels[2]).append('=').append(b);
+			}
+		}
+	}
+
+	// appends everything recorded since the last round to the file
+	private static final class Drainer implements Runnable {
+		private final String path;
+
+		Drainer(String path) {
+			this.path = path;
+		}
+
+		public void run() {
+			try (PrintWriter out = new PrintWriter(new FileWriter(path, true))) {
+				out.println("# trace started at " + new Date(startMillis) + ", ring size " + RING_SIZE);
+				List<Line> lines = new ArrayList<>();
+				while (true) {
+					Thread.sleep(FLUSH_MILLIS);
+					lines.clear();
+					for (Ring r : rings) {
+						r.read(lines, true);
+						if (r.isFinished()) {
+							rings.remove(r);
+						}
+					}
+					write(out, lines);
+				}
+			} catch (IOException e) {
+				LOGGER.warning(logtag + "fail to write " + path + ", no more draining: " + e);
+			} catch (InterruptedException e) {
+				LOGGER.warning(logtag + "drainer interrupted, shutting down");
+			} finally {
+				draining = false;
+				pruneDead();
+			}
+		}
+	}
+}
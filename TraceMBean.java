@@ -0,0 +1,12 @@
+/*
+    Trace over JMX, as game:type=Trace,component=trace.
+ */
+public interface TraceMBean {
+    boolean isRecording();
+    void start();
+    void stop();
+    // events overwritten before the drainer got to them
+    long getDropped();
+    // @return: number of events written
+    int dump(String path) throws java.io.IOException;
+}
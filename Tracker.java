@@ -1,33 +1,58 @@
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Map;
 
 import java.rmi.registry.Registry;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.logging.Logger;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /*
     Tracker is the class to maintain players' IP addresses and ports,
     and acts as the entry point of all players since its IP is well-known to the public
+    Players are kept in a concurrent map by playerID,
+    so getTrackerInfo reads without any lock and adds and removes only contend on the same player.
+    Every entry holds a lease that the player renews every leaseMillis/3 (-Dgame.tracker.leaseMs);
+    a player that stops renewing is dropped by the LeaseReaper, and is never handed out once its lease has run out.
+    The primary publishes who the primary and backup are, and joiners get them as a hint to go straight to the primary.
  */
 public class Tracker implements TrackerRemote {
 
     private static final String TAG = "tracker";
-    private Set<PlayerAddr> addrSet;
-    private Lock addrSetLock = new ReentrantLock();
+    private static final long LEASE_MILLIS = Long.getLong("game.tracker.leaseMs", 3000);
+    private static final long REAPER_TICK_MILLIS = Long.getLong("game.tracker.tickMs", 100);
+    private Map<String, LeaseReaper.Lease> playersByID = new ConcurrentHashMap<>();
+    // adds and removes take the read side and run concurrently,
+    // addPrimaryPlayer takes the write side so that the map is still empty when it adds itself
+    private ReadWriteLock membershipLock = new ReentrantReadWriteLock();
     private int dim, treasures_num;
+    private LeaseReaper leaseReaper;
+    // last published by a primary, replaced as a whole
+    private volatile Roles roles = new Roles(null, null, -1);
     private final Logger LOGGER = Logger.getLogger("Game");
     private String logtag = "[tracker]";
 
+    // latency of every remote method, over JMX as game:type=Latency,component=tracker,name=rmi.<method>
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram getTrackerInfoLatency = metrics.latency("rmi.getTrackerInfo");
+    private final LatencyHistogram addPlayerAddrLatency = metrics.latency("rmi.addPlayerAddr");
+    private final LatencyHistogram removePlayerAddrLatency = metrics.latency("rmi.removePlayerAddr");
+    private final LatencyHistogram renewLeaseLatency = metrics.latency("rmi.renewLease");
+    private final LatencyHistogram addPrimaryPlayerLatency = metrics.latency("rmi.addPrimaryPlayer");
+    private final LatencyHistogram publishRolesLatency = metrics.latency("rmi.publishRoles");
+
     public Tracker(int dim, int treasures_num){
-        this.addrSet = new HashSet<>();
         this.dim = dim;
         this.treasures_num = treasures_num;
 
+        this.leaseReaper = new LeaseReaper(this, LEASE_MILLIS, REAPER_TICK_MILLIS);
+        Thread reaperThread = new Thread(leaseReaper, "lease-reaper");
+        reaperThread.setDaemon(true);
+        reaperThread.start();
+        metrics.publish("component=" + TAG);
+
         String ipAddr = Common.getLocalAddress();
         if (ipAddr == null) {
             LOGGER.severe("Cannot get ip address for tracker");
@@ -36,54 +61,190 @@ public class Tracker implements TrackerRemote {
         LOGGER.info(logtag + "tracker ip address: " + ipAddr);
     }
 
-    public TrackerResponse getTrackerInfo(){
-        // TODO: we may we to lock addrSet here for read also
-        TrackerResponse resp = new TrackerResponse();
-        Iterator<PlayerAddr> it = addrSet.iterator();
-        if ( it.hasNext() ) {
-            resp.playerAddr = it.next();
+    public TrackerResponse getTrackerInfo() {
+        long start = System.nanoTime();
+        try {
+            return doGetTrackerInfo();
+        } finally {
+            getTrackerInfoLatency.record(System.nanoTime() - start);
         }
+    }
+
+    private TrackerResponse doGetTrackerInfo(){
+        // no lock, the iterator of a ConcurrentHashMap never fails and sees a recent state
+        // entries whose lease has run out but are not reaped yet are skipped
+        TrackerResponse resp = new TrackerResponse();
+        long now = LeaseReaper.now();
+        resp.playerAddr = firstLivePlayer(now);
+        Roles roles = this.roles;
+        resp.primaryAddr = liveOrNull(roles.primary, now);
+        resp.backupAddr = liveOrNull(roles.backup, now);
         resp.dim = dim;
         resp.treasures_num = treasures_num;
+        resp.leaseMillis = LEASE_MILLIS;
         return resp;
     }
 
     public boolean addPlayerAddr(PlayerAddr playerAddr) {
-        addrSetLock.lock();
-        addrSet.add(playerAddr);
-        addrSetLock.unlock();
-        LOGGER.info("[addPlayerAddr] playerID: " + playerAddr.playerID +", then size becomes " + getSetStr());
+        long start = System.nanoTime();
+        try {
+            return doAddPlayerAddr(playerAddr);
+        } finally {
+            addPlayerAddrLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean doAddPlayerAddr(PlayerAddr playerAddr) {
+        membershipLock.readLock().lock();
+        putPlayer(playerAddr);
+        membershipLock.readLock().unlock();
+        LOGGER.info("[addPlayerAddr] playerID: " + playerAddr.playerID +", then size becomes " + playersByID.size());
         return true;
     }
 
+    public boolean publishRoles(PlayerAddr primary, PlayerAddr backup, long version) {
+        long start = System.nanoTime();
+        try {
+            return doPublishRoles(primary, backup, version);
+        } finally {
+            publishRolesLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    // a lower version is only refused while the primary that published the higher one still holds its lease:
+    // versions start over after the game is lost without a move log, and a backup promoted under
+    // the async policy may be behind what the old primary last published
+    private boolean doPublishRoles(PlayerAddr primary, PlayerAddr backup, long version) {
+        synchronized (this) {
+            if (version < roles.version && !primary.equals(roles.primary)
+                    && liveOrNull(roles.primary, LeaseReaper.now()) != null) {
+                LOGGER.warning("[publishRoles] refusing roles from " + primary.playerID + " at version " + version
+                        + ", " + roles.primary.playerID + " is still live at version " + roles.version);
+                return false;
+            }
+            roles = new Roles(primary, backup, version);
+        }
+        LOGGER.info("[publishRoles] primary: " + primary.playerID + " backup: " + (backup == null ? "none" : backup.playerID) + " at version " + version);
+        return true;
+    }
+
+    // @return: false if playerAddr has no lease any more, it has to call addPlayerAddr again
+    public boolean renewLease(PlayerAddr playerAddr) {
+        long start = System.nanoTime();
+        try {
+            return doRenewLease(playerAddr);
+        } finally {
+            renewLeaseLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean doRenewLease(PlayerAddr playerAddr) {
+        LeaseReaper.Lease lease = playersByID.get(playerAddr.playerID);
+        if (lease == null || !lease.playerAddr.equals(playerAddr)) {
+            return false;
+        }
+        return lease.renew(LeaseReaper.now(), LEASE_MILLIS);
+    }
+
+    // only removes the player if it is still registered at the same endpoint,
+    // so that a late removal of an old address does not drop the player that has rejoined
     public void removePlayerAddr(PlayerAddr playerAddr) {
-        addrSetLock.lock();
-        addrSet.remove(playerAddr);
-        addrSetLock.unlock();
-        LOGGER.info("[removePlayerAddr] playerID: " + playerAddr.playerID +", then size becomes " + getSetStr());
+        long start = System.nanoTime();
+        try {
+            doRemovePlayerAddr(playerAddr);
+        } finally {
+            removePlayerAddrLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private void doRemovePlayerAddr(PlayerAddr playerAddr) {
+        membershipLock.readLock().lock();
+        playersByID.computeIfPresent(playerAddr.playerID, (playerID, current) -> {
+            if (!current.playerAddr.equals(playerAddr)) {
+                return current;
+            }
+            current.end();
+            return null;
+        });
+        membershipLock.readLock().unlock();
+        LOGGER.info("[removePlayerAddr] playerID: " + playerAddr.playerID +", then size becomes " + playersByID.size());
     }
 
-    // TODO: make it synchronous so that only one player will become primary
     public boolean addPrimaryPlayer(PlayerAddr playerAddr) {
+        long start = System.nanoTime();
+        try {
+            return doAddPrimaryPlayer(playerAddr);
+        } finally {
+            addPrimaryPlayerLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean doAddPrimaryPlayer(PlayerAddr playerAddr) {
         boolean success = false;
 
-        addrSetLock.lock();
-        if (addrSet.size() == 0){
-            addrSet.add(playerAddr);
+        membershipLock.writeLock().lock();
+        // players whose lease has run out don't count, they may just not be reaped yet
+        if (firstLivePlayer(LeaseReaper.now()) == null){
+            putPlayer(playerAddr);
             success = true;
         }        
-        addrSetLock.unlock();
+        membershipLock.writeLock().unlock();
         
-        LOGGER.info("[addPrimaryPlayer] playerID: " + playerAddr.playerID +" isSucceeded: "+success+", then size becomes " + getSetStr());
+        LOGGER.info("[addPrimaryPlayer] playerID: " + playerAddr.playerID +" isSucceeded: "+success+", then size becomes " + playersByID.size());
         return success;
     }
 
-    private String getSetStr() {
-        String list = "";
-        for ( PlayerAddr addr : addrSet) {
-            list += addr.playerID + ", ";
+    // called by the reaper once lease has run out
+    void expire(LeaseReaper.Lease lease) {
+        membershipLock.readLock().lock();
+        // the player may have registered again with a new lease meanwhile
+        boolean removed = playersByID.remove(lease.playerAddr.playerID, lease);
+        membershipLock.readLock().unlock();
+        if (removed) {
+            LOGGER.info("[expire] playerID: " + lease.playerAddr.playerID +" lease has run out, then size becomes " + playersByID.size());
+        }
+    }
+
+    // @return: playerAddr if it is still registered at the same endpoint with a live lease
+    private PlayerAddr liveOrNull(PlayerAddr playerAddr, long now) {
+        if (playerAddr == null) {
+            return null;
+        }
+        LeaseReaper.Lease lease = playersByID.get(playerAddr.playerID);
+        return lease != null && lease.isLive(now) && lease.playerAddr.equals(playerAddr) ? playerAddr : null;
+    }
+
+    private PlayerAddr firstLivePlayer(long now) {
+        for (LeaseReaper.Lease lease : playersByID.values()) {
+            if (lease.isLive(now)) {
+                return lease.playerAddr;
+            }
+        }
+        return null;
+    }
+
+    // compute serializes the updates of one player
+    // a new registration always gets a new lease, so the reaper never drops it for the old one
+    private void putPlayer(PlayerAddr playerAddr) {
+        LeaseReaper.Lease lease = new LeaseReaper.Lease(playerAddr, LeaseReaper.now() + LEASE_MILLIS);
+        playersByID.compute(playerAddr.playerID, (playerID, current) -> {
+            if (current != null) {
+                current.end();
+            }
+            return lease;
+        });
+        leaseReaper.schedule(lease);
+    }
+
+    private static class Roles {
+        final PlayerAddr primary, backup;
+        final long version;
+
+        Roles(PlayerAddr primary, PlayerAddr backup, long version) {
+            this.primary = primary;
+            this.backup = backup;
+            this.version = version;
         }
-        return list;
     }
 
     public static void main(String args[]) {
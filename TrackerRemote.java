@@ -9,6 +9,12 @@ public interface TrackerRemote extends Remote{
     TrackerResponse getTrackerInfo() throws RemoteException;
     boolean addPlayerAddr(PlayerAddr playerAddr) throws RemoteException;
     void removePlayerAddr(PlayerAddr playerAddr) throws RemoteException;
+    // to be called every TrackerResponse.leaseMillis/3, false if the lease is gone
+    boolean renewLease(PlayerAddr playerAddr) throws RemoteException;
 
     boolean addPrimaryPlayer(PlayerAddr playerAddr) throws RemoteException;
+    // called by the primary whenever the primary or backup changes, backup may be null
+    // calls with a lower version than the last one are refused while the primary that made it is live
+    // @return: false if refused, the caller publishes again later
+    boolean publishRoles(PlayerAddr primary, PlayerAddr backup, long version) throws RemoteException;
 }
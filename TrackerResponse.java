@@ -1,10 +1,49 @@
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 /**
  * Created by yichao.wang on 18/9/16.
  */
-public class TrackerResponse implements java.io.Serializable {
+public class TrackerResponse implements java.io.Externalizable {
 
     public PlayerAddr playerAddr=null;
+    // who the tracker last heard are primary and backup, null if unknown or their lease has run out
+    // they may be stale, then the joiner falls back to asking playerAddr
+    public PlayerAddr primaryAddr=null, backupAddr=null;
     public int dim, treasures_num;
+    // how long a registration lasts without a renewLease
+    public long leaseMillis;
 
     public TrackerResponse() {}
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.bool(playerAddr != null);
+        if (playerAddr != null) {
+            playerAddr.writeTo(writer);
+        }
+        writer.bool(primaryAddr != null);
+        if (primaryAddr != null) {
+            primaryAddr.writeTo(writer);
+        }
+        writer.bool(backupAddr != null);
+        if (backupAddr != null) {
+            backupAddr.writeTo(writer);
+        }
+        writer.varInt(dim);
+        writer.varInt(treasures_num);
+        writer.varLong(leaseMillis);
+        writer.finish();
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        playerAddr = reader.bool() ? PlayerAddr.read(reader) : null;
+        primaryAddr = reader.bool() ? PlayerAddr.read(reader) : null;
+        backupAddr = reader.bool() ? PlayerAddr.read(reader) : null;
+        dim = reader.varInt();
+        treasures_num = reader.varInt();
+        leaseMillis = reader.varLong();
+    }
 }
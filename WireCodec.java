@@ -0,0 +1,269 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+/*
+    WireCodec holds the primitives of our compact binary encoding, used by the Externalizable
+    classes that go over RMI (GameState, GameStateDelta, InterfaceData, TrackerResponse, PlayerAddr, Coord).
+    Ints are varints (zigzag for signed values), and strings go through a per message table:
+    the first occurrence is written out, later ones are written as their index in the table.
+    A Writer/Reader pair covers one top level object, nested objects are written
+    through their writeTo/readFrom methods so they share the table and carry no class descriptor.
+    The Writer encodes into its own buffer and finish() writes it out as one length prefixed block,
+    which the Reader reads in one go, rather than going through the stream byte by byte.
+ */
+public class WireCodec {
+
+    public static class Writer {
+        private final DataOutput out;
+        private final Map<String, Integer> table = new HashMap<>();
+        private byte[] buf = new byte[256];
+        private int len = 0;
+
+        public Writer(DataOutput out) {
+            this.out = out;
+        }
+
+        // writes everything encoded so far to the output
+        public void finish() throws IOException {
+            out.writeInt(len);
+            out.write(buf, 0, len);
+            len = 0;
+        }
+
+        private void writeByte(int b) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[len++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            if (len + bytes.length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        public void varInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        public void varLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        // for values that may be negative
+        public void zigZag(int value) throws IOException {
+            varInt((value << 1) ^ (value >> 31));
+        }
+
+        public void bool(boolean value) throws IOException {
+            writeByte(value ? 1 : 0);
+        }
+
+        // 0 for null, index + 1 for a string already in the table,
+        // otherwise (table size + 1) followed by the string itself
+        public void string(String value) throws IOException {
+            if (value == null) {
+                varInt(0);
+                return;
+            }
+            Integer index = table.get(value);
+            if (index != null) {
+                varInt(index + 1);
+                return;
+            }
+            index = table.size();
+            table.put(value, index);
+            varInt(index + 1);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varInt(bytes.length);
+            writeBytes(bytes);
+        }
+
+        // size of a collection that may be null
+        public void size(Object collection, int size) throws IOException {
+            varInt(collection == null ? 0 : size + 1);
+        }
+
+        public void scores(Map<String, Integer> scores) throws IOException {
+            if (scores == null) {
+                size(null, 0);
+                return;
+            }
+            // the maps we send are Hashtables, which synchronize on themselves;
+            // the size is taken under the same lock, so that it matches the entries that follow
+            synchronized (scores) {
+                size(scores, scores.size());
+                for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+                    string(entry.getKey());
+                    zigZag(entry.getValue());
+                }
+            }
+        }
+
+        public void coords(Map<String, Coord> coords) throws IOException {
+            if (coords == null) {
+                size(null, 0);
+                return;
+            }
+            synchronized (coords) {
+                size(coords, coords.size());
+                for (Map.Entry<String, Coord> entry : coords.entrySet()) {
+                    string(entry.getKey());
+                    entry.getValue().writeTo(this);
+                }
+            }
+        }
+
+        public void playerAddrs(Map<String, PlayerAddr> playerAddrs) throws IOException {
+            if (playerAddrs == null) {
+                size(null, 0);
+                return;
+            }
+            synchronized (playerAddrs) {
+                size(playerAddrs, playerAddrs.size());
+                for (Map.Entry<String, PlayerAddr> entry : playerAddrs.entrySet()) {
+                    string(entry.getKey());
+                    entry.getValue().writeTo(this);
+                }
+            }
+        }
+    }
+
+    public static class Reader {
+        private final List<String> table = new ArrayList<>();
+        private final byte[] buf;
+        private int pos = 0;
+
+        // reads the whole block a Writer has finished
+        public Reader(DataInput in) throws IOException {
+            int len = in.readInt();
+            if (len < 0) {
+                throw new IOException("malformed block length: " + len);
+            }
+            buf = new byte[len];
+            in.readFully(buf);
+        }
+
+        private byte readByte() throws IOException {
+            if (pos == buf.length) {
+                throw new EOFException();
+            }
+            return buf[pos++];
+        }
+
+        public int varInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        public long varLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varlong");
+        }
+
+        public int zigZag() throws IOException {
+            int value = varInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public boolean bool() throws IOException {
+            return readByte() != 0;
+        }
+
+        public String string() throws IOException {
+            int ref = varInt();
+            if (ref == 0) {
+                return null;
+            }
+            if (ref <= table.size()) {
+                return table.get(ref - 1);
+            }
+            int length = varInt();
+            if (length < 0 || length > buf.length - pos) {
+                throw new EOFException();
+            }
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            table.add(value);
+            return value;
+        }
+
+        // @return: the collection size, or -1 for null
+        public int size() throws IOException {
+            return varInt() - 1;
+        }
+
+        public Map<String, Integer> scores() throws IOException {
+            int size = size();
+            if (size < 0) {
+                return null;
+            }
+            Map<String, Integer> scores = new Hashtable<>();
+            for (int i = 0; i < size; i++) {
+                String playerID = string();
+                scores.put(playerID, zigZag());
+            }
+            return scores;
+        }
+
+        public Map<String, Coord> coords() throws IOException {
+            int size = size();
+            if (size < 0) {
+                return null;
+            }
+            Map<String, Coord> coords = new Hashtable<>();
+            for (int i = 0; i < size; i++) {
+                String playerID = string();
+                coords.put(playerID, Coord.read(this));
+            }
+            return coords;
+        }
+
+        public Map<String, PlayerAddr> playerAddrs() throws IOException {
+            int size = size();
+            if (size < 0) {
+                return null;
+            }
+            Map<String, PlayerAddr> playerAddrs = new Hashtable<>();
+            for (int i = 0; i < size; i++) {
+                String playerID = string();
+                playerAddrs.put(playerID, PlayerAddr.read(this));
+            }
+            return playerAddrs;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.lang.management.ManagementFactory;
+
+/*
+    Minimal timing harness for the benchmarks in this directory.
+    Build and run them together with the game sources, e.g.
+        javac -d out *.java bench/*.java
+        java -cp out FreeCellBenchmark
+    measure also counts the bytes the benchmark thread allocates, as reported by the JVM,
+    so that garbage shows up next to the time.
+ */
+public class Bench {
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    public interface Op {
+        void run() throws Exception;
+    }
+
+    // runs op repeatedly for a warmup period, then for the measure period
+    // @return: average nanoseconds per op
+    public static double nanosPerOp(Op op) throws Exception {
+        loop(op, WARMUP_NANOS);
+        long start = System.nanoTime();
+        long ops = loop(op, MEASURE_NANOS);
+        return (double) (System.nanoTime() - start) / ops;
+    }
+
+    public static void report(String name, double nanosPerOp) {
+        System.out.printf("%-50s %12.1f ns/op %14.0f ops/s%n", name, nanosPerOp, 1e9 / nanosPerOp);
+    }
+
+    public static class Result {
+        public final double nanosPerOp;
+        // -1 if the JVM cannot count allocations
+        public final double bytesPerOp;
+
+        Result(double nanosPerOp, double bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        // MB allocated per second of running op
+        public double allocationRate() {
+            return bytesPerOp * 1e9 / nanosPerOp / (1 << 20);
+        }
+    }
+
+    // same as nanosPerOp, plus the bytes allocated per op by this thread
+    public static Result measure(Op op) throws Exception {
+        loop(op, WARMUP_NANOS);
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long ops = loop(op, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+        double bytesPerOp = allocatedBefore < 0 ? -1 : (double) (allocatedAfter - allocatedBefore) / ops;
+        return new Result((double) elapsed / ops, bytesPerOp);
+    }
+
+    public static void report(String name, Result result) {
+        if (result.bytesPerOp < 0) {
+            report(name, result.nanosPerOp);
+            return;
+        }
+        System.out.printf("%-50s %12.1f ns/op %14.0f ops/s %12.1f B/op %10.1f MB/s%n",
+                name, result.nanosPerOp, 1e9 / result.nanosPerOp, result.bytesPerOp, result.allocationRate());
+    }
+
+    // @return: bytes allocated by the current thread so far, -1 if not supported
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long loop(Op op, long nanos) throws Exception {
+        long deadline = System.nanoTime() + nanos;
+        long ops = 0;
+        do {
+            for (int i = 0; i < 100; i++) {
+                op.run();
+            }
+            ops += 100;
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+}
@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/*
+    Compares failure detectors on simulated time, as PrimaryHelper uses them: every heartbeat interval
+    a ping is sent to a peer unless one is still out, a ping that has not returned in PING_TIMEOUT counts as missed,
+    and after every sweep the peer is removed if the detector says DEAD.
+
+    The peer answers after a round trip that is mostly about a millisecond, with a slow one now and then;
+    a few pings fail outright (a reset connection), and every so often the peer stops
+    for a GC pause or the like and answers its pings only when it is back.
+    "healthy" runs peers that never die and counts how often they are removed anyway (false positives)
+    and suspected. "crash" kills peers at a random time, either with the connection refused from then on
+    or with pings that hang, and measures how long until they are removed.
+
+        java -cp out FailureDetectorSimulation [peers] [minutes] [seed]
+    -Dsim.pausesPerMinute=1 -Dsim.pauseMs=100,800 -Dsim.failRate=0.002 -Dsim.slowRate=0.01
+    -Dgame.heartbeat.intervalMs and the -Dgame.fd.* options set the detectors as in the game.
+ */
+public class FailureDetectorSimulation {
+    private static final long INTERVAL = FailureDetector.HEARTBEAT_INTERVAL;
+    private static final long PING_TIMEOUT = Long.getLong("game.heartbeat.timeoutMs", 500);
+    private static final double PAUSES_PER_MINUTE = Double.parseDouble(System.getProperty("sim.pausesPerMinute", "1"));
+    private static final long[] PAUSE_MS = parseRange(System.getProperty("sim.pauseMs", "100,800"));
+    private static final double FAIL_RATE = Double.parseDouble(System.getProperty("sim.failRate", "0.002"));
+    private static final double SLOW_RATE = Double.parseDouble(System.getProperty("sim.slowRate", "0.01"));
+
+    private interface DetectorFactory {
+        FailureDetector create();
+    }
+
+    public static void main(String[] args) {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int minutes = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        List<DetectorFactory> detectors = new ArrayList<>();
+        // the helpers before the failure detectors
+        detectors.add(() -> new FixedFailureDetector(1, 1));
+        detectors.add(() -> new FixedFailureDetector(1, 3));
+        detectors.add(() -> PhiAccrualFailureDetector.fromSystemProperties(INTERVAL));
+        // without the allowance for pauses, only what the peer's history says
+        detectors.add(() -> new PhiAccrualFailureDetector(3, 8, 100, 50, 0, INTERVAL));
+        detectors.add(() -> new PhiAccrualFailureDetector(3, 8, 100, 25, 300, INTERVAL));
+
+        System.out.printf("%d peers x %d min, heartbeat %d ms, ping timeout %d ms, %.1f pauses/min of %d-%d ms,"
+                        + " %.2f%% pings failing, %.1f%% slow%n%n",
+                peers, minutes, INTERVAL, PING_TIMEOUT, PAUSES_PER_MINUTE, PAUSE_MS[0], PAUSE_MS[1],
+                FAIL_RATE * 100, SLOW_RATE * 100);
+        System.out.printf("%-62s %10s %10s %20s %20s%n", "detector", "false/h", "suspect/h",
+                "refused p50/p99 ms", "hang p50/p99 ms");
+        for (DetectorFactory factory : detectors) {
+            Healthy healthy = new Healthy();
+            Random random = new Random(seed);
+            for (int i = 0; i < peers; i++) {
+                healthy.add(new Peer(factory.create(), random, Long.MAX_VALUE, false).run(minutes * 60_000L));
+            }
+            long[] refused = detectionTimes(factory, peers, minutes, new Random(seed), false);
+            long[] hang = detectionTimes(factory, peers, minutes, new Random(seed), true);
+            double peerHours = peers * minutes / 60.0;
+            System.out.printf("%-62s %10.2f %10.2f %20s %20s%n", factory.create(),
+                    healthy.falsePositives / peerHours, healthy.suspicions / peerHours,
+                    percentiles(refused), percentiles(hang));
+        }
+    }
+
+    // crashes every peer at a random time after the first minute
+    // @return: time from the crash until the peer was removed, for every peer
+    private static long[] detectionTimes(DetectorFactory factory, int peers, int minutes, Random random, boolean hang) {
+        long[] times = new long[peers];
+        for (int i = 0; i < peers; i++) {
+            long crashAt = 60_000 + (long) (random.nextDouble() * Math.max(1, minutes - 1) * 60_000);
+            Peer peer = new Peer(factory.create(), random, crashAt, hang);
+            Outcome outcome = peer.run(crashAt + 60_000);
+            times[i] = outcome.removedAt - crashAt;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    private static String percentiles(long[] sorted) {
+        return sorted[sorted.length / 2] + " / " + sorted[(int) (sorted.length * 0.99)];
+    }
+
+    private static long[] parseRange(String range) {
+        String[] parts = range.split(",");
+        return new long[]{Long.parseLong(parts[0].trim()), Long.parseLong(parts[parts.length - 1].trim())};
+    }
+
+    private static class Healthy {
+        long falsePositives = 0;
+        long suspicions = 0;
+
+        void add(Outcome outcome) {
+            falsePositives += outcome.falsePositives;
+            suspicions += outcome.suspicions;
+        }
+    }
+
+    private static class Outcome {
+        long falsePositives = 0;
+        long suspicions = 0;
+        // first removal at or after the crash, Long.MAX_VALUE if none
+        long removedAt = Long.MAX_VALUE;
+    }
+
+    // a ping that returns (heartbeat) or counts as missed at time at
+    private static class Event implements Comparable<Event> {
+        final long at;
+        final boolean heartbeat;
+        // the ping is no longer outstanding, a new one may be sent
+        final boolean clearsOutstanding;
+
+        Event(long at, boolean heartbeat, boolean clearsOutstanding) {
+            this.at = at;
+            this.heartbeat = heartbeat;
+            this.clearsOutstanding = clearsOutstanding;
+        }
+
+        public int compareTo(Event other) {
+            return Long.compare(at, other.at);
+        }
+    }
+
+    /*
+        One peer pinged by one detector. Pauses are drawn up front as a Poisson process.
+        A removed peer that has not crashed rejoins at once, the detector forgets it.
+     */
+    private static class Peer {
+        private static final String ID = "peer";
+        private final FailureDetector detector;
+        private final Random random;
+        private final long crashAt;
+        private final boolean hang;
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        // start and end of the next pause
+        private long pauseStart;
+        private long pauseEnd;
+
+        Peer(FailureDetector detector, Random random, long crashAt, boolean hang) {
+            this.detector = detector;
+            this.random = random;
+            this.crashAt = crashAt;
+            this.hang = hang;
+            nextPause(0);
+        }
+
+        private void nextPause(long after) {
+            double meanGap = 60_000 / Math.max(1e-9, PAUSES_PER_MINUTE);
+            pauseStart = after + (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+            pauseEnd = pauseStart + PAUSE_MS[0] + (long) (random.nextDouble() * (PAUSE_MS[1] - PAUSE_MS[0]));
+        }
+
+        private long roundTrip() {
+            if (random.nextDouble() < SLOW_RATE) {
+                return 20 + random.nextInt(180);
+            }
+            return 1 + (long) Math.abs(random.nextGaussian() * 0.5);
+        }
+
+        Outcome run(long duration) {
+            Outcome outcome = new Outcome();
+            boolean outstanding = false;
+            boolean suspected = false;
+            detector.heartbeat(ID, 0);
+            for (long now = INTERVAL; now <= duration; now += INTERVAL) {
+                while (!events.isEmpty() && events.peek().at <= now) {
+                    Event event = events.poll();
+                    if (event.heartbeat) {
+                        detector.heartbeat(ID, event.at);
+                    } else {
+                        detector.missed(ID, event.at);
+                    }
+                    if (event.clearsOutstanding) {
+                        outstanding = false;
+                    }
+                }
+
+                FailureDetector.Status status = detector.status(ID, now);
+                if (status == FailureDetector.Status.DEAD) {
+                    if (now < crashAt) {
+                        outcome.falsePositives++;
+                        // removed and rejoined
+                        detector.remove(ID);
+                        detector.heartbeat(ID, now);
+                        events.clear();
+                        outstanding = false;
+                        suspected = false;
+                        continue;
+                    }
+                    outcome.removedAt = now;
+                    return outcome;
+                }
+                if (status == FailureDetector.Status.SUSPECT) {
+                    if (!suspected && now < crashAt) {
+                        outcome.suspicions++;
+                    }
+                    suspected = true;
+                } else {
+                    suspected = false;
+                }
+
+                if (!outstanding) {
+                    outstanding = true;
+                    ping(now);
+                }
+            }
+            return outcome;
+        }
+
+        private void ping(long sentAt) {
+            long rtt = roundTrip();
+            long arrives = sentAt + rtt / 2;
+            if (arrives >= crashAt) {
+                if (hang) {
+                    events.add(new Event(sentAt + PING_TIMEOUT, false, true));
+                } else {
+                    events.add(new Event(sentAt + rtt, false, true));
+                }
+                return;
+            }
+            if (random.nextDouble() < FAIL_RATE) {
+                events.add(new Event(sentAt + rtt, false, true));
+                return;
+            }
+            while (pauseEnd < arrives) {
+                nextPause(pauseEnd);
+            }
+            long answered = sentAt + rtt;
+            if (arrives >= pauseStart) {
+                // answered once the pause is over
+                answered = Math.max(answered, pauseEnd + rtt / 2);
+            }
+            if (answered >= crashAt) {
+                // crashed before it was back from the pause
+                long given = sentAt + PING_TIMEOUT;
+                events.add(new Event(hang ? given : Math.min(crashAt, given), false, true));
+                return;
+            }
+            if (answered - sentAt > PING_TIMEOUT) {
+                // given up on, the answer still comes in later
+                events.add(new Event(sentAt + PING_TIMEOUT, false, true));
+                events.add(new Event(answered, true, false));
+            } else {
+                events.add(new Event(answered, true, true));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.Random;
+
+/*
+    Picking a random empty cell (treasure respawn, player placement) at increasing board occupancy:
+    the old rejection sampling against MazeGrid's free cell index.
+    Each op fills one empty cell and empties one occupied cell, so occupancy stays put.
+
+        java -cp out FreeCellBenchmark [N]
+ */
+public class FreeCellBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int N = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        double[] occupancies = {0.5, 0.9, 0.99, 0.999};
+
+        for (double occupancy : occupancies) {
+            Board board = new Board(N, occupancy);
+            Bench.report("rejection sampling N=" + N + " occupancy=" + occupancy,
+                    Bench.measure(() -> board.step(board.rejectionSample())));
+
+            Board indexed = new Board(N, occupancy);
+            Bench.report("free cell index    N=" + N + " occupancy=" + occupancy,
+                    Bench.measure(() -> indexed.step(indexed.grid.randomEmptyIndex(indexed.rand))));
+        }
+    }
+
+    private static class Board {
+        final MazeGrid grid;
+        final Random rand = new Random(42);
+        // the occupied cells, so that one can be emptied in O(1)
+        final int[] occupied;
+        int occupiedCount;
+
+        Board(int N, double occupancy) {
+            grid = new MazeGrid(N);
+            occupied = new int[N * N];
+            int target = (int) (N * N * occupancy);
+            while (occupiedCount < target) {
+                fill(grid.randomEmptyIndex(rand));
+            }
+        }
+
+        // what Game.getRandEmptyCoord used to do
+        int rejectionSample() {
+            int x, y;
+            do {
+                x = rand.nextInt(grid.N);
+                y = rand.nextInt(grid.N);
+            } while (!grid.isEmpty(x, y));
+            return grid.index(x, y);
+        }
+
+        void step(int emptyIndex) {
+            fill(emptyIndex);
+            int victim = rand.nextInt(occupiedCount);
+            grid.setAt(occupied[victim], MazeGrid.EMPTY);
+            occupied[victim] = occupied[--occupiedCount];
+        }
+
+        private void fill(int index) {
+            grid.setAt(index, MazeGrid.TREASURE);
+            occupied[occupiedCount++] = index;
+        }
+    }
+}
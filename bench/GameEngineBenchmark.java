@@ -0,0 +1,48 @@
+import java.util.logging.LogManager;
+
+/*
+    The primary's hot paths on one thread, with the time and the garbage of each op:
+    applyPlayerMove at different board sizes and player counts (players take turns, one move each),
+    and what goes out for every move: the GameState from prepareGameState through Java serialization
+    (what RMI does with the reply), and InterfaceData for the GUI.
+
+        java -cp out GameEngineBenchmark
+ */
+public class GameEngineBenchmark {
+    private static final String[] MOVES = {"1", "2", "3", "4"};
+    private static final String REFRESH = "0";
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+
+        for (int N : new int[]{16, 64, 256}) {
+            for (int players : new int[]{1, 16, 64}) {
+                if (players > N * N / 4) {
+                    continue;
+                }
+                Game game = MoveThroughputBenchmark.primaryWithPlayers(N, players);
+                int[] turn = {0};
+                Bench.report("applyPlayerMove N=" + N + " players=" + players, Bench.measure(() -> {
+                    int i = turn[0]++;
+                    game.applyPlayerMove("p" + (i % players), MOVES[(i / players) & 3]);
+                }));
+            }
+        }
+
+        for (int N : new int[]{16, 64, 256}) {
+            int players = Math.min(64, N * N / 4);
+            Game game = MoveThroughputBenchmark.primaryWithPlayers(N, players);
+            String name = "N=" + N + " players=" + players;
+            // a REFRESH returns prepareGameState() and changes nothing
+            Bench.report("prepareGameState " + name,
+                    Bench.measure(() -> game.applyPlayerMove("p0", REFRESH)));
+            Bench.report("prepareGameState+serialize " + name,
+                    Bench.measure(() -> WireFormatBenchmark.serialize(game.applyPlayerMove("p0", REFRESH))));
+            GameState gameState = game.applyPlayerMove("p0", REFRESH);
+            Bench.report("prepareInterfaceData " + name,
+                    Bench.measure(() -> Common.prepareInterfaceData(gameState, Game.PRIMARY)));
+            Bench.report("prepareInterfaceData+serialize " + name,
+                    Bench.measure(() -> WireFormatBenchmark.serialize(Common.prepareInterfaceData(gameState, Game.PRIMARY))));
+        }
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.LogManager;
+
+/*
+    Headless load generator: a Tracker and a number of Game players in this JVM, against an RMI registry
+    on the default port, every player moving at its share of a target rate (random moves,
+    or the lines of a script file). The primary and/or backup are killed at a fixed interval
+    (Game.kill, the process keeps running but the player stops answering) and replaced by a new player.
+
+    Latencies are recorded per operation: join, move, refresh, and the failover gap, i.e. how long a move
+    that was in flight when the primary or backup was killed took from the kill until it went through,
+    or else how long the first move of a player after the kill took.
+    A move's latency is taken from when it was due, not from when it was sent, so a player that falls
+    behind its rate shows up in the latencies instead of being hidden by sending less.
+    Completed operations per second are recorded as well. Everything goes to a JSON report.
+
+        java -cp out [options] LoadGenerator
+    options (all optional):
+        -Dload.players=8          players kept in the game
+        -Dload.seconds=30         how long to drive moves
+        -Dload.rate=200           moves per second over all players
+        -Dload.refreshRatio=0.1   share of the operations that are REFRESH
+        -Dload.N=15 -Dload.K=10   board size and treasures
+        -Dload.killEvery=10       seconds between kills, 0 for none
+        -Dload.kill=primary       primary, backup or both (taking turns)
+        -Dload.script=<file>      one move per line, player i starts at line i; # comments
+        -Dload.report=load-report.json
+        -Dload.log=false          keep the game's logging
+    and any -Dgame.* option of the players, e.g. -Dgame.transport=nio.
+ */
+public class LoadGenerator {
+    private static final String REFRESH = "0";
+    private static final String[] MOVES = {"1", "2", "3", "4"};
+
+    private final int players = Integer.getInteger("load.players", 8);
+    private final int seconds = Integer.getInteger("load.seconds", 30);
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "200"));
+    private final double refreshRatio = Double.parseDouble(System.getProperty("load.refreshRatio", "0.1"));
+    private final int N = Integer.getInteger("load.N", 15);
+    private final int K = Integer.getInteger("load.K", 10);
+    private final int killEvery = Integer.getInteger("load.killEvery", 10);
+    private final String killMode = System.getProperty("load.kill", "primary");
+    private final String scriptFile = System.getProperty("load.script");
+    private final String reportFile = System.getProperty("load.report", "load-report.json");
+
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final LatencyHistogram joins = histogram("join");
+    private final LatencyHistogram moves = histogram("move");
+    private final LatencyHistogram refreshes = histogram("refresh");
+    private final LatencyHistogram failoverGaps = histogram("failover_gap");
+    // completed operations in every second of the run
+    private final AtomicLongArray opsPerSecond = new AtomicLongArray(Integer.getInteger("load.seconds", 30) + 1);
+    private final AtomicLong errors = new AtomicLong();
+    private final List<String> killLog = new CopyOnWriteArrayList<>();
+
+    private List<String> script;
+    private final List<Driver> drivers = new CopyOnWriteArrayList<>();
+    private int nextPlayer = 0;
+    private long startNanos;
+    // when the primary or backup was last killed, 0 if never
+    private volatile long lastKillNanos = 0;
+
+    public static void main(String[] args) throws Exception {
+        // before Game is loaded, there is nobody to look at the windows
+        System.setProperty("game.gui", "off");
+        if (!Boolean.getBoolean("load.log")) {
+            LogManager.getLogManager().reset();
+        }
+        new LoadGenerator().run();
+        System.exit(0);
+    }
+
+    private LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histograms.put(name, histogram);
+        return histogram;
+    }
+
+    private void run() throws Exception {
+        if (scriptFile != null) {
+            script = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(scriptFile))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    script.add(line);
+                }
+            }
+        }
+
+        Registry registry = LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
+        Tracker tracker = new Tracker(N, K);
+        registry.bind("tracker", UnicastRemoteObject.exportObject(tracker, 0));
+
+        System.out.println("joining " + players + " players");
+        for (int i = 0; i < players; i++) {
+            drivers.add(join());
+        }
+        startNanos = System.nanoTime();
+        for (Driver driver : drivers) {
+            driver.start();
+        }
+
+        System.out.println("driving " + rate + " moves/s for " + seconds + "s");
+        long deadline = startNanos + seconds * 1_000_000_000L;
+        long nextKill = killEvery > 0 ? startNanos + killEvery * 1_000_000_000L : Long.MAX_VALUE;
+        int kills = 0;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            if (System.nanoTime() >= nextKill && nextKill < deadline) {
+                boolean primary = killMode.equals("primary") || (killMode.equals("both") && kills % 2 == 0);
+                kill(primary ? Game.PRIMARY : Game.BACKUP);
+                kills++;
+                nextKill += killEvery * 1_000_000_000L;
+            }
+        }
+        for (Driver driver : drivers) {
+            driver.running = false;
+        }
+        // a driver stuck in a failover is not waited for
+        for (Driver driver : drivers) {
+            driver.join(2000);
+        }
+
+        writeReport(System.nanoTime() - startNanos);
+        System.out.println("report written to " + reportFile);
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            System.out.printf(Locale.ROOT, "%-14s count %8d  p50 %10.1f us  p99 %10.1f us  max %10.1f us%n",
+                    entry.getKey(), histogram.getCount(), histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3, histogram.getMaxNanos() / 1e3);
+        }
+    }
+
+    // @return: the driver of a new player that has joined, not started yet
+    private Driver join() throws Exception {
+        String playerID = "p" + nextPlayer;
+        Driver driver = new Driver(playerID, nextPlayer);
+        nextPlayer++;
+        long start = System.nanoTime();
+        driver.game = new Game("127.0.0.1", String.valueOf(Registry.REGISTRY_PORT), playerID);
+        driver.game.joinGame();
+        joins.record(System.nanoTime() - start);
+        return driver;
+    }
+
+    private void kill(int role) throws Exception {
+        Driver victim = null;
+        for (Driver driver : drivers) {
+            if (driver.game.gameRole == role) {
+                victim = driver;
+                break;
+            }
+        }
+        String roleName = role == Game.PRIMARY ? "primary" : "backup";
+        if (victim == null) {
+            // still failing over from the last kill
+            System.out.println("no " + roleName + " to kill");
+            return;
+        }
+        long now = System.nanoTime();
+        System.out.println("killing " + roleName + " " + victim.playerID);
+        killLog.add(String.format(Locale.ROOT, "{\"atSeconds\": %.3f, \"role\": \"%s\", \"playerID\": \"%s\"}",
+                (now - startNanos) / 1e9, roleName, victim.playerID));
+        victim.running = false;
+        drivers.remove(victim);
+        lastKillNanos = now;
+        victim.game.kill();
+
+        Driver replacement = join();
+        drivers.add(replacement);
+        replacement.start();
+    }
+
+    private class Driver extends Thread {
+        final String playerID;
+        final int index;
+        Game game;
+        volatile boolean running = true;
+
+        Driver(String playerID, int index) {
+            super("load-" + playerID);
+            setDaemon(true);
+            this.playerID = playerID;
+            this.index = index;
+        }
+
+        public void run() {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            long interval = (long) (players * 1e9 / rate);
+            long due = System.nanoTime();
+            long op = 0;
+            long seenKill = lastKillNanos;
+            while (running) {
+                due += interval;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                String move;
+                if (script != null) {
+                    move = script.get((int) ((index + op) % script.size()));
+                } else if (rand.nextDouble() < refreshRatio) {
+                    move = REFRESH;
+                } else {
+                    move = MOVES[rand.nextInt(MOVES.length)];
+                }
+                op++;
+
+                long sent = System.nanoTime();
+                try {
+                    game.moveBatch(Collections.singletonList(move));
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    continue;
+                }
+                long done = System.nanoTime();
+                if (!running) {
+                    // killed meanwhile, whatever it measured is not a player's view any more
+                    return;
+                }
+
+                long killedAt = lastKillNanos;
+                if (killedAt > sent && killedAt < done) {
+                    failoverGaps.record(done - killedAt);
+                    seenKill = killedAt;
+                } else if (killedAt != seenKill) {
+                    // the first move after a kill is the one that finds out
+                    failoverGaps.record(done - Math.min(due, sent));
+                    seenKill = killedAt;
+                } else if (move.equals(REFRESH)) {
+                    refreshes.record(done - Math.min(due, sent));
+                } else {
+                    moves.record(done - Math.min(due, sent));
+                }
+                int second = (int) ((done - startNanos) / 1_000_000_000L);
+                if (second < opsPerSecond.length()) {
+                    opsPerSecond.incrementAndGet(second);
+                }
+            }
+        }
+    }
+
+    private void writeReport(long elapsedNanos) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(reportFile)))) {
+            out.println("{");
+            out.printf(Locale.ROOT, "  \"config\": {\"players\": %d, \"seconds\": %d, \"rate\": %.1f, \"refreshRatio\": %.3f, "
+                            + "\"N\": %d, \"K\": %d, \"killEvery\": %d, \"kill\": \"%s\", \"script\": %s, \"transport\": \"%s\"},%n",
+                    players, seconds, rate, refreshRatio, N, K, killEvery, killMode,
+                    scriptFile == null ? "null" : "\"" + scriptFile.replace("\\", "\\\\").replace("\"", "\\\"") + "\"",
+                    System.getProperty("game.transport", "rmi"));
+            out.printf(Locale.ROOT, "  \"elapsedSeconds\": %.3f,%n", elapsedNanos / 1e9);
+            out.printf("  \"errors\": %d,%n", errors.get());
+            out.println("  \"latencyMicros\": {");
+            int i = 0;
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                LatencyHistogram h = entry.getValue();
+                out.printf(Locale.ROOT, "    \"%s\": {\"count\": %d, \"mean\": %.1f, \"p50\": %.1f, \"p90\": %.1f, "
+                                + "\"p99\": %.1f, \"p999\": %.1f, \"max\": %.1f}%s%n",
+                        entry.getKey(), h.getCount(), h.getMeanNanos() / 1e3,
+                        h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                        h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3,
+                        h.getMaxNanos() / 1e3, ++i < histograms.size() ? "," : "");
+            }
+            out.println("  },");
+            out.println("  \"kills\": [" + String.join(", ", killLog) + "],");
+            List<String> perSecond = new ArrayList<>();
+            for (int second = 0; second < Math.min(seconds, opsPerSecond.length()); second++) {
+                perSecond.add(String.valueOf(opsPerSecond.get(second)));
+            }
+            out.println("  \"opsPerSecond\": [" + String.join(", ", perSecond) + "]");
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.logging.LogManager;
+
+/*
+    What the write-ahead log (MoveLog) costs the primary, in moves per second with 1, 2, 4, ... threads:
+    "no log" is the game without durability, "log" appends every move but does not wait for the disk
+    (-Dgame.wal.fsync=false), "log+fsync" waits for the group commit before every reply.
+    The log goes to a temporary directory unless one is given; put it on the disk you care about.
+
+        java -cp out MoveLogBenchmark [N] [maxThreads] [dir]
+ */
+public class MoveLogBenchmark {
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+        int N = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        File dir = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("movelog").toFile();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report("no log     N=" + N + " threads=" + threads, run(N, threads, null, false));
+            report("log        N=" + N + " threads=" + threads, run(N, threads, dir, false));
+            report("log+fsync  N=" + N + " threads=" + threads, run(N, threads, dir, true));
+        }
+    }
+
+    private static void report(String name, double movesPerSecond) {
+        Bench.report(name, 1e9 / movesPerSecond);
+    }
+
+    // @param dir: null for no log
+    private static double run(int N, int threads, File dir, boolean fsync) throws Exception {
+        Game game = MoveThroughputBenchmark.primaryWithPlayers(N, threads);
+        MoveLog log = null;
+        if (dir != null) {
+            log = new MoveLog(game, dir, 64 << 20, 100_000, fsync, 10);
+            game.startMoveLog(log);
+        }
+        double movesPerSecond = MoveThroughputBenchmark.measure(game, threads);
+        if (log != null) {
+            log.close();
+        }
+        return movesPerSecond;
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Hashtable;
+
+/*
+    Checks MovePredictor against the rules of Game.applyPlayerMoves on a small board:
+    REFRESH is accepted, a move into another player or off the board is not,
+    and a move onto a treasure scores. Exits with 1 on the first wrong prediction.
+
+        java -cp out MovePredictorCheck
+ */
+public class MovePredictorCheck {
+    private static final String REFRESH = "0";
+    private static final String MOVE_WEST = "1";
+    private static final String MOVE_SOUTH = "2";
+    private static final String MOVE_EAST = "3";
+
+    public static void main(String[] args) {
+        // p1 at (1,0) on the west edge, p2 south of it at (2,0), a treasure east of it at (1,1)
+        GameState state = new GameState();
+        state.maze = new MazeGrid(4);
+        state.playerCoordMap = new Hashtable<>();
+        state.playerScores = new Hashtable<>();
+        state.playerAddrMap = new Hashtable<>();
+        place(state, "p1", new Coord(1, 0));
+        place(state, "p2", new Coord(2, 0));
+        state.maze.set(1, 1, MazeGrid.TREASURE);
+
+        MovePredictor predictor = new MovePredictor("p1");
+        predictor.pushed(state);
+
+        check(predictor, REFRESH, true);
+        check(predictor, MOVE_WEST, false);
+        check(predictor, MOVE_SOUTH, false);
+        GameState predicted = check(predictor, MOVE_EAST, true);
+        if (predicted.playerScores.get("p1") != 1) {
+            fail("treasure not scored: " + predicted.playerScores);
+        }
+        System.out.println("ok, " + predictor.getPredictions() + " predictions");
+    }
+
+    private static void place(GameState state, String playerID, Coord coord) {
+        state.maze.set(coord.x, coord.y, state.maze.addPlayer(playerID));
+        state.playerCoordMap.put(playerID, coord);
+        state.playerScores.put(playerID, 0);
+    }
+
+    // predicts move on its own, from the base state, which predict never changes
+    private static GameState check(MovePredictor predictor, String move, boolean expected) {
+        GameState predicted = predictor.predict(new String[]{move});
+        if (predicted == null) {
+            fail("nothing predicted for move " + move);
+        }
+        if (predictor.getPredictedAccepted()[0] != expected) {
+            fail("move " + move + " predicted " + (expected ? "rejected" : "accepted"));
+        }
+        return predicted;
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.LogManager;
+
+/*
+    Moves per second on the primary with 1, 2, 4, ... threads, each thread moving its own player
+    at random through Game.applyPlayerMoves, the way the RMI threads do.
+    "one tile" locks the whole board with a single tile, i.e. the old single lock,
+    "tiles" uses the default -Dgame.lockTile.
+
+        java -cp out MoveThroughputBenchmark [N] [maxThreads]
+ */
+public class MoveThroughputBenchmark {
+    private static final long WARMUP_MILLIS = 500;
+    private static final long MEASURE_MILLIS = 1000;
+    private static final String[] MOVES = {"1", "2", "3", "4"};
+
+    public static void main(String[] args) throws Exception {
+        // logging would serialize everything on the console handler
+        LogManager.getLogManager().reset();
+        int N = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report("one tile N=" + N + " threads=" + threads, run(N, threads, N));
+            report("tiles    N=" + N + " threads=" + threads, run(N, threads, Integer.getInteger("game.lockTile", 4)));
+        }
+    }
+
+    private static void report(String name, double movesPerSecond) {
+        Bench.report(name, 1e9 / movesPerSecond);
+    }
+
+    private static double run(int N, int threads, int tileSize) throws Exception {
+        Game game = primaryWithPlayers(N, threads);
+        game.tileLocks = new TileLocks(N, tileSize);
+        return measure(game, threads);
+    }
+
+    // an offline primary with players p0 .. p<players-1>
+    static Game primaryWithPlayers(int N, int players) {
+        Game game = new Game(N, N, "p0");
+        for (int i = 1; i < players; i++) {
+            game.addOtherPlayer(new PlayerAddr("127.0.0.1", 0, "p" + i));
+            // the second player is made backup, but there is nobody to replicate to
+            game.backupPlayerID = "";
+        }
+        return game;
+    }
+
+    // thread i moves player pi
+    // @return: moves per second over all threads
+    static double measure(Game game, int threads) throws Exception {
+        AtomicBoolean measuring = new AtomicBoolean(false);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicLong moves = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            String playerID = "p" + i;
+            workers[i] = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                String[] move = new String[1];
+                long count = 0;
+                boolean counting = false;
+                while (!stop.get()) {
+                    if (!counting && measuring.get()) {
+                        counting = true;
+                        count = 0;
+                    }
+                    move[0] = MOVES[rand.nextInt(MOVES.length)];
+                    game.applyPlayerMoves(playerID, move);
+                    count++;
+                }
+                moves.addAndGet(count);
+            });
+            workers[i].start();
+        }
+        Thread.sleep(WARMUP_MILLIS);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(MEASURE_MILLIS);
+        stop.set(true);
+        long elapsed = System.nanoTime() - start;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return moves.get() * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.LogManager;
+
+/*
+    PlayerAddr hashing and the Tracker's membership with 10 to 10000 players:
+    equals/hashCode through a HashSet, a player leaving and joining again at the tracker,
+    and getTrackerInfo, which every joiner calls.
+
+        java -cp out TrackerBenchmark
+ */
+public class TrackerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+
+        for (int players : new int[]{10, 1000, 10000}) {
+            PlayerAddr[] addrs = new PlayerAddr[players];
+            for (int i = 0; i < players; i++) {
+                addrs[i] = new PlayerAddr("192.168." + (i / 250) + "." + (i % 250), 1099, "player" + i);
+            }
+
+            Set<PlayerAddr> set = new HashSet<>();
+            for (PlayerAddr addr : addrs) {
+                set.add(addr);
+            }
+            int[] next = {0};
+            Bench.report("PlayerAddr HashSet.contains players=" + players, Bench.measure(() -> {
+                // an equal copy, so that equals has to compare the fields
+                PlayerAddr addr = addrs[next[0]++ % players];
+                if (!set.contains(new PlayerAddr(addr.ip_addr, addr.port, addr.playerID))) {
+                    throw new IllegalStateException("lost " + addr.playerID);
+                }
+            }));
+
+            Tracker tracker = new Tracker(15, 10);
+            for (PlayerAddr addr : addrs) {
+                tracker.addPlayerAddr(addr);
+            }
+            Bench.report("Tracker remove+add players=" + players, Bench.measure(() -> {
+                PlayerAddr addr = addrs[next[0]++ % players];
+                tracker.removePlayerAddr(addr);
+                tracker.addPlayerAddr(addr);
+            }));
+            Bench.report("Tracker getTrackerInfo players=" + players, Bench.measure(tracker::getTrackerInfo));
+        }
+    }
+}
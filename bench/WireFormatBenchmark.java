@@ -0,0 +1,145 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Random;
+
+/*
+    Bytes per GameState and encode/decode time of the Externalizable wire format,
+    against default Java serialization of the classes as they used to be
+    (String[][] maze, Hashtables of boxed values, Serializable PlayerAddr and Coord).
+
+        java -cp out WireFormatBenchmark
+ */
+public class WireFormatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        for (int players : new int[]{10, 100, 1000}) {
+            int N = Math.max(15, (int) Math.ceil(Math.sqrt(players * 4)));
+            GameState state = buildState(players, N, 10);
+            LegacyGameState legacy = LegacyGameState.of(state);
+
+            GameState decoded = (GameState) deserialize(serialize(state));
+            checkRoundTrip(state, decoded);
+
+            String name = players + " players N=" + N;
+            System.out.printf("%-50s %10d bytes compact %10d bytes legacy%n",
+                    name, serialize(state).length, serialize(legacy).length);
+            Bench.report("encode compact " + name, Bench.nanosPerOp(() -> serialize(state)));
+            Bench.report("encode legacy  " + name, Bench.nanosPerOp(() -> serialize(legacy)));
+            byte[] compactBytes = serialize(state);
+            byte[] legacyBytes = serialize(legacy);
+            Bench.report("decode compact " + name, Bench.nanosPerOp(() -> deserialize(compactBytes)));
+            Bench.report("decode legacy  " + name, Bench.nanosPerOp(() -> deserialize(legacyBytes)));
+        }
+    }
+
+    static GameState buildState(int players, int N, int K) {
+        Random rand = new Random(7);
+        GameState state = new GameState();
+        state.maze = new MazeGrid(N);
+        state.playerCoordMap = new Hashtable<>();
+        state.playerScores = new Hashtable<>();
+        state.playerAddrMap = new Hashtable<>();
+        for (int i = 0; i < K; i++) {
+            state.maze.setAt(state.maze.randomEmptyIndex(rand), MazeGrid.TREASURE);
+        }
+        for (int i = 0; i < players; i++) {
+            String playerID = Character.toString((char) ('a' + i % 26)) + (char) ('a' + (i / 26) % 26) + i;
+            int index = state.maze.randomEmptyIndex(rand);
+            state.maze.setAt(index, state.maze.addPlayer(playerID));
+            state.playerCoordMap.put(playerID, new Coord(index / N, index % N));
+            state.playerScores.put(playerID, rand.nextInt(50));
+            state.playerAddrMap.put(playerID, new PlayerAddr("192.168.1." + (i % 200), 0, playerID));
+        }
+        state.version = 123456;
+        state.primaryPlayerID = "aa0";
+        return state;
+    }
+
+    static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        return in.readObject();
+    }
+
+    private static void checkRoundTrip(GameState expected, GameState actual) {
+        boolean same = Arrays.deepEquals(expected.maze.toStringMaze(), actual.maze.toStringMaze())
+                && expected.playerScores.equals(actual.playerScores)
+                && expected.playerAddrMap.keySet().equals(actual.playerAddrMap.keySet())
+                && expected.version == actual.version
+                && expected.primaryPlayerID.equals(actual.primaryPlayerID)
+                && actual.maze.emptyCount() == expected.maze.emptyCount();
+        for (Map.Entry<String, Coord> entry : expected.playerCoordMap.entrySet()) {
+            Coord coord = actual.playerCoordMap.get(entry.getKey());
+            same &= coord != null && coord.x == entry.getValue().x && coord.y == entry.getValue().y;
+            PlayerAddr addr = actual.playerAddrMap.get(entry.getKey());
+            same &= addr.ip_addr.equals(expected.playerAddrMap.get(entry.getKey()).ip_addr);
+        }
+        if (!same) {
+            throw new IllegalStateException("GameState does not round trip");
+        }
+    }
+
+    // what GameState looked like on the wire before the compact format
+    static class LegacyGameState implements Serializable {
+        Map<String, LegacyCoord> playerCoordMap = new Hashtable<>();
+        String[][] maze;
+        Map<String, Integer> playerScores;
+        Map<String, LegacyPlayerAddr> playerAddrMap = new Hashtable<>();
+        long version;
+        boolean isBecomeBackup;
+        boolean shouldChangePrimary;
+        String primaryPlayerID;
+        boolean shouldChangeBackup;
+        String backupPlayerID;
+
+        static LegacyGameState of(GameState state) {
+            LegacyGameState legacy = new LegacyGameState();
+            for (Map.Entry<String, Coord> entry : state.playerCoordMap.entrySet()) {
+                legacy.playerCoordMap.put(entry.getKey(), new LegacyCoord(entry.getValue().x, entry.getValue().y));
+            }
+            legacy.maze = state.maze.toStringMaze();
+            legacy.playerScores = new Hashtable<>(state.playerScores);
+            for (Map.Entry<String, PlayerAddr> entry : state.playerAddrMap.entrySet()) {
+                PlayerAddr addr = entry.getValue();
+                legacy.playerAddrMap.put(entry.getKey(), new LegacyPlayerAddr(addr.ip_addr, addr.port, addr.playerID));
+            }
+            legacy.version = state.version;
+            legacy.primaryPlayerID = state.primaryPlayerID;
+            return legacy;
+        }
+    }
+
+    static class LegacyCoord implements Serializable {
+        int x, y;
+
+        LegacyCoord(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class LegacyPlayerAddr implements Serializable {
+        String ip_addr;
+        int port;
+        String playerID;
+
+        LegacyPlayerAddr(String ip_addr, int port, String playerID) {
+            this.ip_addr = ip_addr;
+            this.port = port;
+            this.playerID = playerID;
+        }
+    }
+}